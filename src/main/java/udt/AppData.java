@@ -1,11 +1,16 @@
 package udt;
 
+import udt.util.Util;
+
 public class AppData implements Comparable<AppData>{
 	final long sequenceNumber;
 	public final byte[] data;
+	//when the data was received (microseconds)
+	final long arrivalTime;
 	public AppData(long sequenceNumber, byte[]data){
 		this.sequenceNumber=sequenceNumber;
 		this.data=data;
+		this.arrivalTime=Util.getCurrentTime();
 	}
 
 	public int compareTo(AppData o) {
@@ -19,6 +24,10 @@ public class AppData implements Comparable<AppData>{
 	public long getSequenceNumber(){
 		return sequenceNumber;
 	}
+
+	public long getArrivalTime(){
+		return arrivalTime;
+	}
 	
 	@Override
 	public int hashCode() {
@@ -0,0 +1,56 @@
+package udt;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * batched datagram I/O on the socket of a {@link DatagramChannel}, moving several datagrams
+ * with one system call (Linux <code>recvmmsg</code> and <code>sendmmsg</code>).
+ * It is used by the {@link UDPEndPoint} if enabled with the system property
+ * <code>udt.endpoint.mmsg=true</code>.<br/>
+ *
+ * This is the portable version, for which batched I/O is never available, so the endpoint uses the
+ * channel. The multi-release JAR contains a version for Java 22 and newer (see src/main/java22),
+ * which returns an implementation calling the system calls through the Foreign Function and Memory API.
+ * That version needs <code>--enable-native-access=ALL-UNNAMED</code> to run without a warning.
+ */
+interface BatchDatagramIO {
+
+	public static final String ENABLED="udt.endpoint.mmsg";
+
+	/**
+	 * @param channel - a bound, non-blocking channel
+	 * @param batchSize - the max. number of datagrams per call
+	 * @param datagramSize - the max. size of a datagram
+	 * @return the batched I/O for the channel, or <code>null</code> if not available on this platform
+	 */
+	static BatchDatagramIO open(DatagramChannel channel, int batchSize, int datagramSize){
+		return null;
+	}
+
+	/**
+	 * receive the datagrams available on the socket, without blocking
+	 * @param buffers - datagram buffers, receives up to buffers.length datagrams
+	 * @param lengths - the lengths of the received datagrams
+	 * @param sources - the senders of the received datagrams
+	 * @return the number of received datagrams
+	 */
+	int receive(byte[][]buffers, int[]lengths, InetSocketAddress[]sources)throws IOException;
+
+	/**
+	 * send datagrams to a target, without blocking
+	 * @param datagrams - the encoded datagrams
+	 * @param offset - the index of the first datagram to send
+	 * @param count - the number of datagrams to send
+	 * @param target
+	 * @return the number of datagrams sent, less than count if the socket send buffer is full
+	 */
+	int send(byte[][]datagrams, int offset, int count, InetSocketAddress target)throws IOException;
+
+	/**
+	 * stop using the socket. Must be called before the channel is closed.
+	 */
+	void close();
+
+}
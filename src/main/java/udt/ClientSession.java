@@ -58,7 +58,9 @@ public abstract class ClientSession extends UDTSession {
 
 	public void setState(int state) {
 			logger.info(toString()+" connection state CHANGED to <"+state+">");
+			int oldState = this.state;
 			this.state = state;
+			onStateChanged(oldState, state);
 			if(state == (handshaking+1)) {
 				try {
 					sendSecondHandshake();
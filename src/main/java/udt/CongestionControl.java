@@ -28,6 +28,13 @@ public interface CongestionControl {
 	 */
 	public abstract void updatePacketArrivalRate(long rate, long linkCapacity);
 
+	/**
+	 * update the one-way delay with the value received in an ACK packet
+	 * @param delay - one-way delay in microseconds, relative to an arbitrary
+	 *                (but fixed) base chosen by the receiver
+	 */
+	public abstract void updateOneWayDelay(long delay);
+
 	/**
 	 * get the current value of the packet arrival 
 	 */
@@ -0,0 +1,33 @@
+package udt;
+
+import udt.sender.RateSample;
+
+/**
+ * extended congestion control interface for delivery rate based algorithms.<br/>
+ *
+ * In addition to the {@link CongestionControl} callbacks, the sender reports every
+ * data packet it sends, and a {@link RateSample} for every ACK that acknowledges
+ * new data. Both callbacks are invoked from the send and receive paths, and do not
+ * allocate, so implementations should not block or allocate either.
+ */
+public interface RateSampleCongestionControl extends CongestionControl {
+
+	/**
+	 * Callback function to be called when a data packet (or a retransmission) is sent.
+	 * @param packetSeqNo - the data packet sequence number
+	 * @param length - the packet length in bytes
+	 * @param sendTime - the send time in microseconds
+	 * @param packetsInFlight - packets in flight, not counting this one
+	 * @param appLimited - true if the sender has run out of application data
+	 * @param retransmit - true if this is a retransmission
+	 */
+	public void onPacketSent(long packetSeqNo, int length, long sendTime, long packetsInFlight, boolean appLimited, boolean retransmit);
+
+	/**
+	 * Callback function to be called when an ACK acknowledges new data,
+	 * before {@link #onACK(long)}.
+	 * @param sample - the rate sample. The instance is reused, so it must not be kept.
+	 */
+	public void onRateSample(RateSample sample);
+
+}
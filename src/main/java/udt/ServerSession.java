@@ -56,7 +56,9 @@ public abstract class ServerSession extends UDTSession {
 
 	public void setState(int state) {
 		logger.info(toString()+" connection state CHANGED to <"+state+">");
+		int oldState=this.state;
 		this.state = state;
+		onStateChanged(oldState, state);
 	}
 	
 
@@ -0,0 +1,196 @@
+package udt;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.util.UDTThreadFactory;
+import udt.util.Util;
+
+/**
+ * collects the events of a session and delivers them to the {@link SessionListener}s.<br/>
+ *
+ * The protocol threads only set flags and add to counters (nothing at all if there is no listener).
+ * A single dispatcher thread, shared by all sessions, delivers the pending events of each session
+ * once per notification interval.
+ */
+class SessionEventNotifier {
+
+	private static final Logger logger=Logger.getLogger(SessionEventNotifier.class.getName());
+
+	public static final String INTERVAL="udt.listener.interval";
+
+	private static final long interval=Math.max(1, Integer.getInteger(INTERVAL, 10));
+
+	private final UDTSession session;
+
+	private final List<SessionListener>listeners=new CopyOnWriteArrayList<SessionListener>();
+
+	private volatile boolean active=false;
+
+	//pending events, guarded by "this"
+	private int types;
+	private long lossReports;
+	private long lostPackets;
+	private long timeouts;
+	private long sendBufferFullEvents;
+	private long receiveBufferDrops;
+
+	SessionEventNotifier(UDTSession session){
+		this.session=session;
+	}
+
+	synchronized void addListener(SessionListener listener){
+		listeners.add(listener);
+		updateRegistration();
+	}
+
+	synchronized void removeListener(SessionListener listener){
+		listeners.remove(listener);
+		updateRegistration();
+	}
+
+	//called with the lock held, so adding and removing listeners can't interleave
+	private void updateRegistration(){
+		active=!listeners.isEmpty();
+		if(active){
+			Dispatcher.register(this);
+		}
+		else{
+			Dispatcher.unregister(this);
+		}
+	}
+
+	/**
+	 * true if there are listeners
+	 */
+	boolean isActive(){
+		return active;
+	}
+
+	void rttUpdated(){
+		if(active)add(SessionEvents.RTT);
+	}
+
+	void rateChanged(){
+		if(active)add(SessionEvents.RATE);
+	}
+
+	void lossReported(int packets){
+		if(!active)return;
+		synchronized (this) {
+			types|=SessionEvents.LOSS;
+			lossReports++;
+			lostPackets+=packets;
+		}
+	}
+
+	void timeout(){
+		if(!active)return;
+		synchronized (this) {
+			types|=SessionEvents.LOSS;
+			timeouts++;
+		}
+	}
+
+	void sendBufferFull(){
+		if(!active)return;
+		synchronized (this) {
+			types|=SessionEvents.BUFFER;
+			sendBufferFullEvents++;
+		}
+	}
+
+	void receiveBufferDrop(){
+		if(!active)return;
+		synchronized (this) {
+			types|=SessionEvents.BUFFER;
+			receiveBufferDrops++;
+		}
+	}
+
+	/**
+	 * the receive buffer is filling up
+	 */
+	void receiveBufferHigh(){
+		if(active)add(SessionEvents.BUFFER);
+	}
+
+	private synchronized void add(int type){
+		types|=type;
+	}
+
+	/**
+	 * deliver the pending events, called from the dispatcher thread
+	 */
+	void dispatch(){
+		SessionEvents events;
+		synchronized (this) {
+			if(types==0)return;
+			events=new SessionEvents(types, Util.getCurrentTime(), session, lossReports, lostPackets, timeouts,
+					sendBufferFullEvents, receiveBufferDrops);
+			types=0;
+			lossReports=0;
+			lostPackets=0;
+			timeouts=0;
+			sendBufferFullEvents=0;
+			receiveBufferDrops=0;
+		}
+		for(SessionListener l: listeners){
+			try{
+				l.onSessionEvents(session, events);
+			}catch(RuntimeException ex){
+				logger.log(Level.WARNING, "Session listener failed", ex);
+			}
+		}
+	}
+
+	/**
+	 * delivers the events of all sessions with listeners
+	 */
+	private static class Dispatcher implements Runnable {
+
+		private static final Set<SessionEventNotifier>notifiers=ConcurrentHashMap.newKeySet();
+
+		private static Thread thread;
+
+		static synchronized void register(SessionEventNotifier notifier){
+			notifiers.add(notifier);
+			if(thread==null){
+				thread=UDTThreadFactory.get().newThread(new Dispatcher());
+				thread.setName("SessionEventDispatcher-"+thread.getName());
+				thread.setDaemon(true);
+				thread.start();
+			}
+			Dispatcher.class.notifyAll();
+		}
+
+		static void unregister(SessionEventNotifier notifier){
+			notifiers.remove(notifier);
+		}
+
+		public void run(){
+			while(true){
+				try{
+					synchronized (Dispatcher.class) {
+						while(notifiers.isEmpty()){
+							Dispatcher.class.wait();
+						}
+					}
+					Thread.sleep(interval);
+				}catch(InterruptedException ie){
+					return;
+				}
+				for(SessionEventNotifier n: notifiers){
+					n.dispatch();
+					//deliver the last events of a closed session, then forget it
+					if(n.session.isShutdown())notifiers.remove(n);
+				}
+			}
+		}
+	}
+
+}
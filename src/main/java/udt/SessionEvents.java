@@ -0,0 +1,199 @@
+package udt;
+
+/**
+ * a batch of coalesced events of a session, see {@link SessionListener}.<br/>
+ *
+ * {@link #contains(int)} tells which kinds of events happened since the last notification.
+ * The counters (lost packets, timeouts, drops) refer to that interval, all other values
+ * are the current values at the time of the notification.
+ */
+public class SessionEvents {
+
+	/* event types */
+
+	//new round trip time measurement
+	public static final int RTT=1;
+	//packets reported lost by the receiver, or timeout
+	public static final int LOSS=2;
+	//change of the sending rate or congestion window, or of the receive rate
+	public static final int RATE=4;
+	//send buffer full, receive buffer (almost) full
+	public static final int BUFFER=8;
+
+	private final int types;
+
+	//microseconds, see Util.getCurrentTime()
+	private final long time;
+
+	private final long roundTripTime;
+	private final long roundTripTimeVariance;
+
+	private final long lossReports;
+	private final long lostPackets;
+	private final long timeouts;
+
+	private final double sendPeriod;
+	private final double congestionWindowSize;
+	private final long packetArrivalRate;
+	private final long estimatedLinkCapacity;
+
+	private final int sendBufferFill;
+	private final int sendBufferSize;
+	private final long sendBufferFullEvents;
+	private final int receiveBufferFill;
+	private final int receiveBufferSize;
+	private final long receiveBufferDrops;
+
+	SessionEvents(int types, long time, UDTSession session, long lossReports, long lostPackets, long timeouts,
+			long sendBufferFullEvents, long receiveBufferDrops){
+		this.types=types;
+		this.time=time;
+		this.roundTripTime=session.getStatistics().getRoundTripTime();
+		this.roundTripTimeVariance=session.getStatistics().getRoundTripTimeVariance();
+		this.lossReports=lossReports;
+		this.lostPackets=lostPackets;
+		this.timeouts=timeouts;
+		CongestionControl cc=session.getCongestionControl();
+		this.sendPeriod=cc.getSendInterval();
+		this.congestionWindowSize=cc.getCongestionWindowSize();
+		this.packetArrivalRate=cc.getPacketArrivalRate();
+		this.estimatedLinkCapacity=cc.getEstimatedLinkCapacity();
+		this.sendBufferFill=session.flowWindow.getValidEntries();
+		this.sendBufferSize=session.flowWindow.getSize();
+		this.sendBufferFullEvents=sendBufferFullEvents;
+		this.receiveBufferFill=session.receiveBuffer.getNumValidChunks();
+		this.receiveBufferSize=session.receiveBuffer.getSize();
+		this.receiveBufferDrops=receiveBufferDrops;
+	}
+
+	/**
+	 * the kinds of events in this batch, a combination of {@link #RTT}, {@link #LOSS},
+	 * {@link #RATE} and {@link #BUFFER}
+	 */
+	public int getTypes(){
+		return types;
+	}
+
+	/**
+	 * @param type - one of {@link #RTT}, {@link #LOSS}, {@link #RATE} or {@link #BUFFER}
+	 * @return true if this batch contains events of the given type
+	 */
+	public boolean contains(int type){
+		return (types & type)!=0;
+	}
+
+	public long getTime(){
+		return time;
+	}
+
+	/**
+	 * round trip time in microseconds
+	 */
+	public long getRoundTripTime(){
+		return roundTripTime;
+	}
+
+	public long getRoundTripTimeVariance(){
+		return roundTripTimeVariance;
+	}
+
+	/**
+	 * the number of NAKs received in this interval
+	 */
+	public long getLossReports(){
+		return lossReports;
+	}
+
+	/**
+	 * the number of packets reported lost in this interval
+	 */
+	public long getLostPackets(){
+		return lostPackets;
+	}
+
+	/**
+	 * the number of EXP timeouts in this interval
+	 */
+	public long getTimeouts(){
+		return timeouts;
+	}
+
+	/**
+	 * packet send period in microseconds
+	 */
+	public double getSendPeriod(){
+		return sendPeriod;
+	}
+
+	public double getCongestionWindowSize(){
+		return congestionWindowSize;
+	}
+
+	/**
+	 * packets per second
+	 */
+	public long getPacketArrivalRate(){
+		return packetArrivalRate;
+	}
+
+	/**
+	 * packets per second
+	 */
+	public long getEstimatedLinkCapacity(){
+		return estimatedLinkCapacity;
+	}
+
+	/**
+	 * data packets waiting to be sent
+	 */
+	public int getSendBufferFill(){
+		return sendBufferFill;
+	}
+
+	public int getSendBufferSize(){
+		return sendBufferSize;
+	}
+
+	/**
+	 * the number of writes in this interval that failed because the send buffer was full
+	 */
+	public long getSendBufferFullEvents(){
+		return sendBufferFullEvents;
+	}
+
+	/**
+	 * data chunks waiting to be read by the application
+	 */
+	public int getReceiveBufferFill(){
+		return receiveBufferFill;
+	}
+
+	public int getReceiveBufferSize(){
+		return receiveBufferSize;
+	}
+
+	/**
+	 * the number of received packets dropped in this interval because the receive buffer was full
+	 */
+	public long getReceiveBufferDrops(){
+		return receiveBufferDrops;
+	}
+
+	public String toString(){
+		StringBuilder sb=new StringBuilder();
+		sb.append("SessionEvents [");
+		if(contains(RTT))sb.append("RTT ");
+		if(contains(LOSS))sb.append("LOSS ");
+		if(contains(RATE))sb.append("RATE ");
+		if(contains(BUFFER))sb.append("BUFFER ");
+		sb.append("rtt=").append(roundTripTime).append(" rttVar=").append(roundTripTimeVariance);
+		sb.append(" naks=").append(lossReports).append(" lost=").append(lostPackets).append(" timeouts=").append(timeouts);
+		sb.append(" sendPeriod=").append((long)sendPeriod).append(" cwnd=").append((long)congestionWindowSize);
+		sb.append(" rate=").append(packetArrivalRate).append(" capacity=").append(estimatedLinkCapacity);
+		sb.append(" sendBuffer=").append(sendBufferFill).append("/").append(sendBufferSize);
+		sb.append(" receiveBuffer=").append(receiveBufferFill).append("/").append(receiveBufferSize);
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,22 @@
+package udt;
+
+/**
+ * receives batched notifications about the protocol state of a {@link UDTSession}, i.e.
+ * RTT updates, loss, rate changes and buffer pressure. Use this to adapt e.g. the bit rate
+ * or chunk size of the application, instead of polling the statistics.<br/>
+ *
+ * Events are coalesced and delivered at most once per notification interval (system property
+ * <code>udt.listener.interval</code>, in milliseconds, default 10) from a single background thread,
+ * which is shared by all sessions. Listeners should return quickly.
+ *
+ * @see UDTSession#addSessionListener(SessionListener)
+ */
+public interface SessionListener {
+
+	/**
+	 * @param session - the session
+	 * @param events - the events since the last notification
+	 */
+	public void onSessionEvents(UDTSession session, SessionEvents events);
+
+}
@@ -35,13 +35,15 @@ package udt;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -49,12 +51,17 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import udt.jmx.JMXSupport;
 import udt.packets.ConnectionHandshake;
+import udt.packets.DataPacket;
 import udt.packets.Destination;
 import udt.packets.PacketFactory;
+import udt.util.PcapWriter;
 import udt.util.UDTThreadFactory;
 import udt.util.Util;
 
@@ -82,6 +89,44 @@ public abstract class UDPEndPoint implements Runnable {
 
 	public static final int DATAGRAM_SIZE=1400;
 
+	//used for naming the MBeans
+	private final int endPointID=JMXSupport.nextEndPointID();
+
+	/**
+	 * system property to enable busy polling: the receive thread spins on the non-blocking
+	 * channel instead of waiting in the selector, which saves the wakeup latency for each
+	 * packet at the cost of one busy CPU core
+	 */
+	public static final String BUSY_POLL="udt.endpoint.busyPoll";
+
+	/**
+	 * system property for the number of empty polls before the busy polling thread starts
+	 * to park (default 10000)
+	 */
+	public static final String BUSY_POLL_SPINS="udt.endpoint.busyPoll.spins";
+
+	/**
+	 * system property for the max. park time of the busy polling thread in microseconds (default 100).
+	 * The park time starts at one microsecond and doubles with each empty poll.
+	 */
+	public static final String BUSY_POLL_MAX_PARK="udt.endpoint.busyPoll.maxPark";
+
+	private final boolean busyPoll=Boolean.getBoolean(BUSY_POLL);
+
+	/**
+	 * system property to disable connecting the channel of a client endpoint to its peer
+	 * (default true), see {@link #createClientSession(Destination)}
+	 */
+	public static final String CONNECT="udt.endpoint.connect";
+
+	private final boolean connectEnabled=Boolean.parseBoolean(System.getProperty(CONNECT, "true"));
+
+	//the peer the channel is connected to, or null
+	private volatile InetSocketAddress connectedPeer;
+
+	//datagram capture (null if not enabled, see PcapWriter)
+	private final PcapWriter capture=PcapWriter.create("udt-endpoint-"+endPointID);
+
 	public abstract UDTSession onSessionCreate(Destination peer, UDPEndPoint endPoint) throws SocketException, IOException;
 
 	/**
@@ -95,7 +140,14 @@ public abstract class UDPEndPoint implements Runnable {
 	}
 
 	
+	/**
+	 * create a session to the given server. The channel of a client endpoint is connected to the
+	 * server (unless disabled with {@link #CONNECT}), so the kernel only delivers packets from the
+	 * server, and packets are sent and received without address handling on each packet.
+	 * A session to a second peer disconnects the channel again.
+	 */
 	public UDTSession createClientSession(Destination destination) throws SocketException, IOException {
+		connect(destination);
 		UDTSession creator = onSessionCreate(destination, this);
 		addSession(creator.getSocketID(), creator);
 		return creator;
@@ -126,9 +178,10 @@ public abstract class UDPEndPoint implements Runnable {
 
 		//start receive thread
 		Thread t=UDTThreadFactory.get().newThread(this);
-		t.setName("UDPEndpoint-"+t.getName());
+		t.setName((busyPoll?"UDPEndpoint-busypoll-":"UDPEndpoint-")+t.getName());
 		t.setDaemon(true);
 		t.start();
+		JMXSupport.registerEndPoint(this, endPointID);
 		logger.info("UDTEndpoint started.");
 	}
 
@@ -144,15 +197,61 @@ public abstract class UDPEndPoint implements Runnable {
 	
 	public void run(){
 		try{
-			doReceive();
+			if(busyPoll)doBusyPoll();
+			else doReceive();
 		}catch(Exception ex){
 			logger.log(Level.WARNING,"",ex);
 		}
 	}
 
+	/**
+	 * connect the channel to the peer of the first client session
+	 */
+	private synchronized void connect(Destination destination)throws IOException{
+		if(!connectEnabled)return;
+		InetSocketAddress peer=new InetSocketAddress(destination.getAddress(), destination.getPort());
+		if(connectedPeer==null && sessions.isEmpty() && sessionsBeingConnected.isEmpty() && !dgChannel.isConnected()){
+			dgChannel.connect(peer);
+			connectedPeer=peer;
+			logger.info("Channel connected to <"+peer+">");
+		}
+		else if(connectedPeer!=null && !connectedPeer.equals(peer)){
+			//the threads using the channel check connectedPeer first
+			connectedPeer=null;
+			dgChannel.disconnect();
+			logger.info("Channel disconnected, second peer <"+peer+">");
+		}
+	}
+
+	/**
+	 * @return the peer the channel is connected to, or <code>null</code> if not connected
+	 */
+	public InetSocketAddress getConnectedPeer(){
+		return connectedPeer;
+	}
+
 	public void stop() throws IOException {
 		stopped=true;
+		BatchDatagramIO b=batchIO;
+		if(b!=null)b.close();
 		dgChannel.close();
+		if(capture!=null)capture.close();
+		for(UDTSession session: sessions.values()){
+			session.getStatistics().stopParameterHistory();
+			JMXSupport.unregisterSession(session, endPointID);
+		}
+		JMXSupport.unregisterEndPoint(endPointID);
+	}
+
+	public boolean isStopped(){
+		return stopped;
+	}
+
+	/**
+	 * @return a read-only view of the active sessions
+	 */
+	public Collection<UDTSession> getSessions(){
+		return Collections.unmodifiableCollection(sessions.values());
 	}
 
 	/**
@@ -171,6 +270,13 @@ public abstract class UDPEndPoint implements Runnable {
 	public void addSession(Long destinationID,UDTSession session){
 		logger.info("Storing session <"+destinationID+">");
 		sessions.put(destinationID, session);
+		JMXSupport.registerSession(session, endPointID);
+	}
+
+	private void removeSession(UDTSession session){
+		sessions.remove(session.getSocketID());
+		session.getStatistics().stopParameterHistory();
+		JMXSupport.unregisterSession(session, endPointID);
 	}
 
 	/**
@@ -186,112 +292,316 @@ public abstract class UDPEndPoint implements Runnable {
 
 	private final ByteBuffer dpbuffer = ByteBuffer.allocate(DATAGRAM_SIZE);
 
-	public void needtoSend() throws IOException {
-		// dgChannel.register(selector, SelectionKey.OP_WRITE);
+	/**
+	 * system property for the max. number of datagrams read from the channel
+	 * before the timers of the sessions are checked
+	 */
+	public static final String RECEIVE_BATCH="udt.endpoint.receiveBatch";
+
+	private final int receiveBatchSize=Math.max(1, Integer.getInteger(RECEIVE_BATCH, 64));
+
+	//batched receive and send with recvmmsg/sendmmsg, see BatchDatagramIO
+	private final boolean batchIOEnabled=Boolean.getBoolean(BatchDatagramIO.ENABLED);
+
+	//opened by the receive thread once the channel is bound
+	private volatile BatchDatagramIO batchIO;
+	private boolean batchIOChecked=false;
+
+	//receive buffers for the batched I/O, only used by the receive thread
+	private byte[][] receiveBuffers;
+	private int[] receiveLengths;
+	private InetSocketAddress[] receiveSources;
+
+	//receive counters, only written by the receive thread
+	private volatile long datagramsReceived=0;
+	private volatile long receiveBatches=0;
+
+	//set by a sender waiting for the channel to become writable
+	private final AtomicBoolean writeInterest=new AtomicBoolean(false);
+
+	//number of times the endpoint waited for OP_WRITE, only written by the receive thread
+	private volatile long writeWaits=0;
+
+	/**
+	 * called by a sender when the socket send buffer is full. The receive thread then
+	 * waits for OP_WRITE and resumes the parked senders, see {@link UDTSender#sendData()}
+	 */
+	public void needtoSend() {
+		if(writeInterest.compareAndSet(false, true) && !busyPoll){
+			selector.wakeup();
+		}
 	}
 	/**
-	 * single receive, run in the receiverThread, see {@link #start()}
+	 * receive loop, run in the receiverThread, see {@link #start()}
 	 * <ul>
-	 * <li>Receives UDP packets from the network</li> 
+	 * <li>Receives UDP packets from the network, reading up to <code>udt.endpoint.receiveBatch</code>
+	 * datagrams per wakeup until the channel is drained</li> 
 	 * <li>Converts them to UDT packets</li>
 	 * <li>dispatches the UDT packets according to their destination ID.</li>
+	 * <li>checks the ACK, NAK and EXP timers of the sessions after each batch, or after one SYN
+	 * without packets</li>
 	 * </ul> 
 	 * @throws IOException
 	 */
 	protected void doReceive()throws IOException{
-		dgChannel.register(selector, SelectionKey.OP_READ);
+		SelectionKey channelKey=dgChannel.register(selector, SelectionKey.OP_READ);
+		long selectTimeout=Math.max(1, Util.getSYNTime()/1000);
 
 		while(!stopped){
-			if(0 == selector.select(Util.getSYNTime()/100) ) {
-				for(UDTSession session:sessions.values()) {
-					session.received(null, null);
-					if(session.getState() == UDTSession.shutdown) {
-						System.out.println("remove shutdown session.");
-						session.onSessionEnd();
-						sessions.remove(session.getSocketID());
-					}
-				}
-				continue;
+			//interest ops are only changed by this thread
+			if(writeInterest.get() && (channelKey.interestOps() & SelectionKey.OP_WRITE)==0){
+				channelKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				writeWaits++;
 			}
+			if(selector.select(selectTimeout)>0){
+				// Get iterator on set of keys with I/O to process
+				Iterator<SelectionKey> keyIter = selector.selectedKeys().iterator();
+				while (keyIter.hasNext()) {
+					SelectionKey key = keyIter.next(); // Key is bit mask
+					keyIter.remove();
+					if(!key.isValid())continue;
 
-			// Get iterator on set of keys with I/O to process
-			Iterator<SelectionKey> keyIter = selector.selectedKeys().iterator();
-			while (keyIter.hasNext()) {
-				SelectionKey key = keyIter.next(); // Key is bit mask
-
-				// Client socket channel has pending data?
-				if (key.isReadable()) {
-					try{
-						//will block until a packet is received or timeout has expired
-						dpbuffer.clear();
-						InetSocketAddress from = (InetSocketAddress)dgChannel.receive(dpbuffer);
-						Destination peer=new Destination(from.getAddress(), from.getPort());
-						int l=dpbuffer.position();
-						dpbuffer.flip();
-						UDTPacket packet=PacketFactory.createPacket(dpbuffer.array(),l);
-
-						long dest=packet.getDestinationID();
-						UDTSession session=sessions.get(dest);
-						if(session!=null){
-							//dispatch to existing session
-							session.received(packet,peer);
-
-							if(session.getState() == UDTSession.shutdown) {
-								session.onSessionEnd();
-								sessions.remove(session.getSocketID());
-							}
-						}
-						else if(packet.isConnectionHandshake()){
-							Destination p=new Destination(peer.getAddress(),peer.getPort());
-							session=sessionsBeingConnected.get(peer);
-							long destID=packet.getDestinationID();
-							if(session!=null && session.getSocketID()==destID){
-								//confirmation handshake
-								sessionsBeingConnected.remove(p);
-								addSession(destID, session);
-							}
-							else if(session==null){
-								session=onSessionCreate(peer,this);
-								sessionsBeingConnected.put(p,session);
-								sessions.put(session.getSocketID(), session);
-								session.onSessionPrepare();
-							}
-							else {
-								throw new IOException("dest ID sent by client does not match: " + session.getSocketID() + " : " + destID);
-							}
-							Long peerSocketID=((ConnectionHandshake)packet).getSocketID();
-							peer.setSocketID(peerSocketID);
-							session.received(packet,peer);
-						}
-						else{
-							logger.warning("Unknown session <"+dest+"> requested from <"+peer+"> packet type "+packet.getClass().getName());
-						}
-					}catch(SocketException ex){
-						logger.log(Level.INFO, "SocketException: "+ex.getMessage());
-					}catch(SocketTimeoutException ste){
-						//can safely ignore... we will retry until the endpoint is stopped
-					}catch(Exception ex){
-						logger.log(Level.WARNING, "Got: "+ex.getMessage(),ex);
+					// Client socket channel has pending data?
+					if (key.isReadable()) {
+						receiveBatch();
 					}
-					// Register write with the selector
-					if(!stopped)
+					// room in the socket send buffer again?
+					if (key.isValid() && key.isWritable()) {
 						key.interestOps(SelectionKey.OP_READ);
-				} else if(key.isWritable()) {
-					int sented = 0;
-					for(UDTSession session:sessions.values()) {
-						sented += session.sender.sendData();
+						writeInterest.set(false);
+						for(UDTSession session:sessions.values()) {
+							session.sender.sendData();
+						}
 					}
-					/*
-					if(!stopped && sented > 0)
-						key.interestOps(SelectionKey.OP_WRITE);
-						*/
 				}
+			}
+			checkTimers();
+		}
+	}
+
+	/**
+	 * receive loop in busy polling mode, see {@link #BUSY_POLL}. Instead of waiting in the
+	 * selector, poll the non-blocking channel. After {@link #BUSY_POLL_SPINS} empty polls,
+	 * park for an increasing time (up to {@link #BUSY_POLL_MAX_PARK}) between polls.
+	 * The session timers are checked after each batch, and every millisecond when idle.
+	 * A sender waiting for the socket send buffer is resumed on the next poll.
+	 */
+	protected void doBusyPoll()throws IOException{
+		final int spins=Math.max(0, Integer.getInteger(BUSY_POLL_SPINS, 10000));
+		final long maxPark=Math.max(1, Integer.getInteger(BUSY_POLL_MAX_PARK, 100))*1000L;
+		final long timerCheckInterval=Math.max(1, Util.getSYNTime()/10);
+		int emptyPolls=0;
+		long park=0;
+		long lastTimerCheck=Util.getCurrentTime();
+
+		while(!stopped){
+			if(writeInterest.compareAndSet(true, false)){
+				writeWaits++;
+				for(UDTSession session:sessions.values()) {
+					session.sender.sendData();
+				}
+			}
+			if(receiveBatch()>0){
+				emptyPolls=0;
+				park=0;
+				checkTimers();
+				lastTimerCheck=Util.getCurrentTime();
+				continue;
+			}
+			if(++emptyPolls>spins){
+				park=Math.min(Math.max(1000, park*2), maxPark);
+				LockSupport.parkNanos(park);
+			}
+			long now=Util.getCurrentTime();
+			if(now-lastTimerCheck>=timerCheckInterval){
+				checkTimers();
+				lastTimerCheck=now;
+			}
+		}
+	}
+
+	/**
+	 * read datagrams until the channel is empty or the batch size is reached
+	 * @return the number of datagrams read
+	 */
+	private int receiveBatch(){
+		if(batchIOEnabled && !batchIOChecked)openBatchIO();
+		if(batchIO!=null)return receiveBatchIO();
+		int n=0;
+		while(n<receiveBatchSize && !stopped){
+			InetSocketAddress from=connectedPeer;
+			dpbuffer.clear();
+			try{
+				if(from!=null){
+					if(dgChannel.read(dpbuffer)<=0)from=null;
+				}
+				else{
+					from=(InetSocketAddress)dgChannel.receive(dpbuffer);
+				}
+			}catch(NotYetConnectedException ex){
+				//disconnected in the meantime
+				continue;
+			}catch(PortUnreachableException ex){
+				//ICMP error for an earlier datagram, e.g. the server is not yet running
+				logger.fine("Peer unreachable: "+connectedPeer);
+				continue;
+			}catch(IOException ex){
+				if(!stopped)logger.log(Level.WARNING, "Got: "+ex.getMessage(),ex);
+				break;
+			}
+			if(from==null)break;
+			n++;
+			int l=dpbuffer.position();
+			dpbuffer.flip();
+			if(capture!=null)capture.capture(from, getLocalSocketAddress(), dpbuffer.array(), 0, l);
+			dispatch(from, dpbuffer.array(), l);
+		}
+		if(n>0){
+			datagramsReceived+=n;
+			receiveBatches++;
+		}
+		return n;
+	}
+
+	/**
+	 * read up to one batch of datagrams with a single system call, see {@link BatchDatagramIO}
+	 * @return the number of datagrams read
+	 */
+	private int receiveBatchIO(){
+		int n;
+		try{
+			n=batchIO.receive(receiveBuffers, receiveLengths, receiveSources);
+		}catch(IOException ex){
+			if(!stopped)logger.log(Level.WARNING, "Got: "+ex.getMessage(),ex);
+			return 0;
+		}
+		for(int i=0;i<n && !stopped;i++){
+			if(capture!=null)capture.capture(receiveSources[i], getLocalSocketAddress(), receiveBuffers[i], 0, receiveLengths[i]);
+			dispatch(receiveSources[i], receiveBuffers[i], receiveLengths[i]);
+		}
+		if(n>0){
+			datagramsReceived+=n;
+			receiveBatches++;
+		}
+		return n;
+	}
+
+	/**
+	 * use batched I/O if available, as soon as the channel is bound
+	 */
+	private void openBatchIO(){
+		if(!dgChannel.socket().isBound())return;
+		batchIOChecked=true;
+		BatchDatagramIO b=BatchDatagramIO.open(dgChannel, receiveBatchSize, DATAGRAM_SIZE);
+		if(b==null)return;
+		receiveBuffers=new byte[receiveBatchSize][DATAGRAM_SIZE];
+		receiveLengths=new int[receiveBatchSize];
+		receiveSources=new InetSocketAddress[receiveBatchSize];
+		batchIO=b;
+	}
+
+	/**
+	 * convert the datagram and hand it to its session
+	 */
+	private void dispatch(InetSocketAddress from, byte[]data, int l){
+		try{
+			Destination peer=new Destination(from.getAddress(), from.getPort());
+			UDTPacket packet=PacketFactory.createPacket(data,l);
+
+			long dest=packet.getDestinationID();
+			UDTSession session=sessions.get(dest);
+			if(session!=null){
+				//dispatch to existing session
+				if(packet.isControlPacket())session.getStatistics().incNumberOfControlPacketsReceived();
+				session.received(packet,peer);
+
+				if(session.getState() == UDTSession.shutdown) {
+					session.onSessionEnd();
+					removeSession(session);
+				}
+			}
+			else if(packet.isConnectionHandshake()){
+				Destination p=new Destination(peer.getAddress(),peer.getPort());
+				session=sessionsBeingConnected.get(peer);
+				long destID=packet.getDestinationID();
+				if(session!=null && session.getSocketID()==destID){
+					//confirmation handshake
+					sessionsBeingConnected.remove(p);
+					addSession(destID, session);
+				}
+				else if(session==null){
+					session=onSessionCreate(peer,this);
+					sessionsBeingConnected.put(p,session);
+					addSession(session.getSocketID(), session);
+					session.onSessionPrepare();
+				}
+				else {
+					throw new IOException("dest ID sent by client does not match: " + session.getSocketID() + " : " + destID);
+				}
+				Long peerSocketID=((ConnectionHandshake)packet).getSocketID();
+				peer.setSocketID(peerSocketID);
+				session.received(packet,peer);
+			}
+			else{
+				logger.warning("Unknown session <"+dest+"> requested from <"+peer+"> packet type "+packet.getClass().getName());
+			}
+		}catch(SocketException ex){
+			logger.log(Level.INFO, "SocketException: "+ex.getMessage());
+		}catch(Exception ex){
+			logger.log(Level.WARNING, "Got: "+ex.getMessage(),ex);
+		}
+	}
 
+	/**
+	 * run the ACK, NAK and EXP timers of all sessions, and remove the sessions that have been shut down
+	 */
+	private void checkTimers(){
+		for(UDTSession session:sessions.values()) {
+			session.received(null, null);
+			if(session.getState() == UDTSession.shutdown) {
+				logger.info("Removing shutdown session <"+session.getSocketID()+">");
+				session.onSessionEnd();
+				removeSession(session);
 			}
-			keyIter.remove();
 		}
 	}
 
+	/**
+	 * true if datagrams are received and sent in batches with recvmmsg/sendmmsg,
+	 * see {@link #doSend(UDTSession, byte[][], int)}
+	 */
+	public boolean isBatchIO(){
+		return batchIO!=null;
+	}
+
+	/**
+	 * true if the endpoint polls the channel instead of using a selector, see {@link #BUSY_POLL}
+	 */
+	public boolean isBusyPoll(){
+		return busyPoll;
+	}
+
+	/**
+	 * the number of datagrams read from the channel
+	 */
+	public long getDatagramsReceived(){
+		return datagramsReceived;
+	}
+
+	/**
+	 * the number of receive batches, i.e. wakeups that read at least one datagram
+	 */
+	public long getReceiveBatches(){
+		return receiveBatches;
+	}
+
+	/**
+	 * the number of times a sender had to wait for the socket send buffer to drain
+	 */
+	public long getWriteWaits(){
+		return writeWaits;
+	}
+
 	/**
 	 * called when a "connection handshake" packet was received and no 
 	 * matching session yet exists
@@ -302,9 +612,100 @@ public abstract class UDPEndPoint implements Runnable {
 	 * @throws InterruptedException
 	 */
 	protected int doSend(UDTSession session, UDTPacket packet)throws IOException{
+		if(packet instanceof DataPacket && ((DataPacket)packet).isReference() && capture==null){
+			int sent=sendReference(session, (DataPacket)packet);
+			if(sent>=0)return sent;
+		}
 		byte[]data=packet.getEncoded();
 		ByteBuffer bb = ByteBuffer.wrap(data);
-		return dgChannel.send(bb, session.getTargetAddress());
+		if(packet.isControlPacket())session.getStatistics().incNumberOfControlPacketsSent();
+		int sent=send(bb, session.getTargetAddress());
+		if(capture!=null && sent>0)capture.capture(getLocalSocketAddress(), session.getTargetAddress(), data, 0, data.length);
+		return sent;
+	}
+
+	/**
+	 * send several encoded datagrams to the peer of the given session, with a single system call
+	 * if batched I/O is used (see {@link #isBatchIO()})
+	 * @param session
+	 * @param datagrams - the encoded packets, at most {@link #DATAGRAM_SIZE} bytes each
+	 * @param count - the number of datagrams to send
+	 * @return the number of datagrams sent, less than count if the socket send buffer is full
+	 * @throws IOException
+	 */
+	protected int doSend(UDTSession session, byte[][]datagrams, int count)throws IOException{
+		InetSocketAddress target=session.getTargetAddress();
+		BatchDatagramIO b=batchIO;
+		int sent=0;
+		while(sent<count){
+			int n;
+			if(b!=null){
+				n=b.send(datagrams, sent, count-sent, target);
+			}
+			else{
+				n=send(ByteBuffer.wrap(datagrams[sent]), target)>0?1:0;
+			}
+			if(n==0)break;
+			if(capture!=null){
+				for(int i=sent;i<sent+n;i++){
+					capture.capture(getLocalSocketAddress(), target, datagrams[i], 0, datagrams[i].length);
+				}
+			}
+			sent+=n;
+		}
+		return sent;
+	}
+
+	/**
+	 * send a data packet referencing a direct buffer with a gathering write, so the
+	 * data goes to the socket without being copied
+	 * @return -1 if the channel is not connected to the peer or the buffer is not direct
+	 */
+	private int sendReference(UDTSession session, DataPacket packet)throws IOException{
+		InetSocketAddress target=session.getTargetAddress();
+		ByteBuffer payload=packet.getPayload();
+		if(!payload.isDirect() || !target.equals(connectedPeer))return -1;
+		ByteBuffer[]bbs={ByteBuffer.wrap(packet.getEncodedHeader()), payload};
+		try{
+			return (int)dgChannel.write(bbs);
+		}catch(NotYetConnectedException ex){
+			//disconnected in the meantime
+			return -1;
+		}catch(PortUnreachableException ex){
+			//ICMP error for an earlier datagram, see send()
+			if(target.equals(connectedPeer))return (int)dgChannel.write(bbs);
+			return -1;
+		}
+	}
+
+	/**
+	 * send a datagram, with write() if the channel is connected to the target
+	 */
+	private int send(ByteBuffer bb, InetSocketAddress target)throws IOException{
+		if(target.equals(connectedPeer)){
+			try{
+				return dgChannel.write(bb);
+			}catch(NotYetConnectedException ex){
+				//disconnected in the meantime
+			}catch(PortUnreachableException ex){
+				//ICMP error for an earlier datagram, which is ignored by an unconnected channel
+				if(target.equals(connectedPeer))return dgChannel.write(bb);
+			}
+		}
+		return dgChannel.send(bb, target);
+	}
+
+	private InetSocketAddress getLocalSocketAddress(){
+		InetSocketAddress local=(InetSocketAddress)dgChannel.socket().getLocalSocketAddress();
+		return local!=null?local:new InetSocketAddress(0);
+	}
+
+	/**
+	 * the datagram capture of this endpoint
+	 * @return the capture, or <code>null</code> if capturing is not enabled
+	 */
+	public PcapWriter getCapture(){
+		return capture;
 	}
 
 }
@@ -93,6 +93,11 @@ public class UDTCongestionControl implements CongestionControl {
 		else estimatedLinkCapacity=linkCapacity;
 	}
 
+	/* (non-Javadoc)
+	 * @see udt.CongestionControl#updateOneWayDelay(long)
+	 */
+	public void updateOneWayDelay(long delay){}
+
 	public long getPacketArrivalRate() {
 		return packetArrivalRate;
 	}
@@ -260,7 +265,19 @@ public class UDTCongestionControl implements CongestionControl {
 	/* (non-Javadoc)
 	 * @see udt.CongestionControl#onTimeout()
 	 */
-	public void onTimeout(){}
+	public void onTimeout(){
+		//as in the C++ reference implementation, a timeout ends slow start
+		if(slowStartPhase){
+			slowStartPhase=false;
+			if(packetArrivalRate>0){
+				packetSendingPeriod=1000000.0/packetArrivalRate;
+			}
+			else{
+				packetSendingPeriod=congestionWindowSize/(roundTripTime+Util.getSYNTimeD());
+			}
+			statistics.setSendPeriod(packetSendingPeriod);
+		}
+	}
 
 	/* (non-Javadoc)
 	 * @see udt.CongestionControl#onPacketSend(long)
@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.logging.Logger;
 
+import udt.jfr.JFRSupport;
 import udt.packets.Acknowledgement;
 import udt.packets.Acknowledgment2;
 import udt.packets.ControlPacket;
@@ -45,10 +46,12 @@ import udt.packets.NegativeAcknowledgement;
 import udt.packets.Shutdown;
 import udt.receiver.AckHistoryEntry;
 import udt.receiver.AckHistoryWindow;
+import udt.receiver.AdaptiveAckPolicy;
 import udt.receiver.PacketHistoryWindow;
 import udt.receiver.PacketPairWindow;
 import udt.receiver.ReceiverLossList;
 import udt.receiver.ReceiverLossListEntry;
+import udt.util.EventTrace;
 import udt.util.MeanValue;
 import udt.util.SequenceNumber;
 import udt.util.UDTStatistics;
@@ -104,6 +107,14 @@ public class UDTReceiver {
 	// the packet arrival rate
 	long packetArrivalSpeed;
 
+	//one-way delay, computed from the data packet time stamps. As the clocks of sender
+	//and receiver are not synchronized, it is relative to the first delay sample
+	private boolean haveDelayBase=false;
+	private int delayBase;
+	private long oneWayDelay=0;
+	//smallest delay sample since the last ACK
+	private long minOneWayDelay=Long.MAX_VALUE;
+
 	//round trip time, calculated from ACK/ACK2 pairs
 	long roundTripTime=0;
 	//round trip time variance
@@ -135,6 +146,16 @@ public class UDTReceiver {
 	//(optional) ack interval (see CongestionControl interface)
 	private volatile long ackInterval=-1;
 
+	//ack interval as requested by the congestion control (or set by the application)
+	private volatile long ccAckInterval=-1;
+
+	//decides on the ACK frequency
+	private final AdaptiveAckPolicy ackPolicy;
+
+	//reused for sending full and light ACKs
+	private final Acknowledgement ackPacket=new Acknowledgement();
+	private final Acknowledgement lightAckPacket=new Acknowledgement();
+
 	/**
 	 * if set to true connections will not expire, but will only be
 	 * closed by a Shutdown message
@@ -142,6 +163,8 @@ public class UDTReceiver {
 	public static boolean connectionExpiryDisabled=false;
 
 	private final boolean storeStatistics;
+
+	private final EventTrace trace;
 	
 	/**
 	 * create a receiver with a valid {@link UDTSession}
@@ -157,6 +180,9 @@ public class UDTReceiver {
 		packetPairWindow = new PacketPairWindow(16);
 		bufferSize=session.getReceiveBufferSize();
 		storeStatistics=Boolean.getBoolean("udt.receiver.storeStatistics");
+		trace=session.getEventTrace();
+		ackPolicy=new AdaptiveAckPolicy(session.getFlowWindowSize());
+		lightAckPacket.setLight(true);
 		initMetrics();
 	}
 	
@@ -177,7 +203,8 @@ public class UDTReceiver {
 	}
 
 	/*
-	 * packets are written by the endpoint
+	 * packets are written by the endpoint. A <code>null</code> packet checks the timers,
+	 * which the endpoint does after each batch of received datagrams, and when idle
 	 */
 	private boolean receiverAlgorithmInited = false;
 	protected void receive(UDTPacket p)throws IOException {
@@ -185,10 +212,24 @@ public class UDTReceiver {
 			nextACK=Util.getCurrentTime()+ackTimerInterval;
 			nextNAK=(long)(Util.getCurrentTime()+1.5*nakTimerInterval);
 			nextEXP=Util.getCurrentTime()+2*expTimerInterval;
-			ackInterval=session.getCongestionControl().getAckInterval();
+			ccAckInterval=session.getCongestionControl().getAckInterval();
+			ackInterval=ccAckInterval;
 			receiverAlgorithmInited = true;
 		}
+		if(null == p){
+			checkTimers();
+			return;
+		}
+		
+		if(storeStatistics)dgReceiveInterval.end();
+		receiverAlgorithm(p);
+		if(storeStatistics)dgReceiveInterval.begin();
+	}
 
+	/**
+	 * process the expired ACK, NAK and EXP timers
+	 */
+	private void checkTimers()throws IOException {
 		//check ACK timer
 		long currentTime=Util.getCurrentTime();
 		if(nextACK<currentTime){
@@ -206,12 +247,6 @@ public class UDTReceiver {
 			nextEXP=currentTime+expTimerInterval;
 			processEXPEvent();
 		}
-		if(null == p)
-			return;
-		
-		if(storeStatistics)dgReceiveInterval.end();
-		receiverAlgorithm(p);
-		if(storeStatistics)dgReceiveInterval.begin();
 	}
 
 	/**
@@ -220,6 +255,7 @@ public class UDTReceiver {
 	 */
 	private void receiverAlgorithm(UDTPacket packet) throws IOException {
 		if(storeStatistics)processTime.begin();
+		long start=Util.getCurrentTime();
 		//reset exp count to 1
 		expCount=1;
 		//If there is no unacknowledged data packet, or if this is an 
@@ -230,7 +266,6 @@ public class UDTReceiver {
 			int cpType=cp.getControlPacketType();
 			// TODO: by wangyuchun: ACK and NAK should not be here?
 			if(cpType==ControlPacketType.ACK.ordinal() || cpType==ControlPacketType.NAK.ordinal()){
-				System.out.println("REST nextEXP 1");
 				nextEXP=Util.getCurrentTime()+expTimerInterval;
 			} else if(cpType == ControlPacketType.ACK2.ordinal()) {
 				Acknowledgment2 ack2=(Acknowledgment2)packet;
@@ -250,6 +285,7 @@ public class UDTReceiver {
 				dataPacketInterval.begin();
 			}
 		}
+		statistics.getReceiverProcessingTimeHistogram().recordSince(start);
 		if(storeStatistics)processTime.end();
 	}
 
@@ -311,7 +347,13 @@ public class UDTReceiver {
 	protected void processEXPEvent()throws IOException{
 		UDTSender sender=session.getSender();
 		//put all the unacknowledged packets in the senders loss list
-		sender.putUnacknowledgedPacketsIntoLossList();
+		if(sender.putUnacknowledgedPacketsIntoLossList()){
+			session.getCongestionControl().onTimeout();
+			trace.record(EventTrace.EXP, expCount, sender.getUnacknowledged());
+			JFRSupport.timeout(session.getSocketID(), expCount, sender.getUnacknowledged());
+			session.getEventNotifier().timeout();
+			sender.recordCCChange("EXP");
+		}
 		if(expCount>16 && System.currentTimeMillis()-sessionUpSince > IDLE_TIMEOUT){
 			if(!connectionExpiryDisabled &&!stopped){
 				sendShutdown();
@@ -336,17 +378,17 @@ public class UDTReceiver {
 	//number of received data packets
 	private int n=0;
 	
+	//number of data packets seen by the (testing) drop check
+	private int dropCounter=0;
+	
 	protected void onDataPacketReceived(DataPacket dp)throws IOException{
 		long currentSequenceNumber = dp.getPacketSequenceNumber();
 		
 		//for TESTING : check whether to drop this packet
-//		n++;
-//		//if(dropRate>0 && n % dropRate == 0){
-//			if(n % 1111 == 0){	
-//				logger.info("**** TESTING:::: DROPPING PACKET "+currentSequenceNumber+" FOR TESTING");
-//				return;
-//			}
-//		//}
+		if(dropRate>0 && ++dropCounter % dropRate == 0){
+			logger.finer("**** TESTING:::: DROPPING PACKET "+currentSequenceNumber+" FOR TESTING");
+			return;
+		}
 		/*
 		boolean OK=session.getSocket().getInputStream().haveNewData(currentSequenceNumber,dp.getData());
 		if(!OK){
@@ -356,8 +398,18 @@ public class UDTReceiver {
 		}
 		*/
 		
+		session.getCongestionControl().onPacketReceive(currentSequenceNumber);
+
 		long currentDataPacketArrivalTime = Util.getCurrentTime();
 
+		//one-way delay sample (the 32 bit time stamps wrap, so use int arithmetic)
+		int rawDelay=(int)(currentDataPacketArrivalTime-dp.getTimeStamp());
+		if(!haveDelayBase){
+			delayBase=rawDelay;
+			haveDelayBase=true;
+		}
+		minOneWayDelay=Math.min(minOneWayDelay, rawDelay-delayBase);
+
 		/*(4).if the seqNo of the current data packet is 16n+1,record the
 		time interval between this packet and the last data packet
 		in the packet pair window*/
@@ -379,7 +431,6 @@ public class UDTReceiver {
 			put all the sequence numbers between (but excluding) these two values
 			into the receiver's loss list and send them to the sender in an NAK packet*/
 		if(SequenceNumber.compare(currentSequenceNumber,largestReceivedSeqNumber+1)>0){
-			System.out.println("NAK for:"+currentSequenceNumber + " to " +largestReceivedSeqNumber);
 			sendNAK(currentSequenceNumber);
 		}
 		else if(SequenceNumber.compare(currentSequenceNumber,largestReceivedSeqNumber)<0){
@@ -390,6 +441,7 @@ public class UDTReceiver {
 		}
 
 		statistics.incNumberOfReceivedDataPackets();
+		statistics.addReceivedDataBytes(dp.getLength());
 
 		//(7).Update the LRSN
 		if(SequenceNumber.compare(currentSequenceNumber,largestReceivedSeqNumber)>0){
@@ -422,8 +474,8 @@ public class UDTReceiver {
 			receiverLossList.insert(detectedLossSeqNumber);
 		}
 		session.doSend(nAckPacket);
-		//logger.info("NAK for "+currentSequenceNumber);
 		statistics.incNumberOfNAKSent();
+		trace.record(EventTrace.NAK_SENT, largestReceivedSeqNumber+1, currentSequenceNumber-largestReceivedSeqNumber-1);
 	}
 
 	private void sendNAK(List<Long>sequenceNumbers)throws IOException{
@@ -433,18 +485,26 @@ public class UDTReceiver {
 		nAckPacket.setSession(session);
 		nAckPacket.setDestinationID(session.getDestination().getSocketID());
 		session.doSend(nAckPacket);
+		trace.record(EventTrace.NAK_SENT, sequenceNumbers.get(0), sequenceNumbers.size());
 		statistics.incNumberOfNAKSent();
 	}
 
+	//a light ACK only carries the ack number, and is not acknowledged by an ACK2
 	protected long sendLightAcknowledgment(long ackNumber)throws IOException{
-		Acknowledgement acknowledgmentPkt=buildLightAcknowledgement(ackNumber);
+		Acknowledgement acknowledgmentPkt=lightAckPacket;
+		acknowledgmentPkt.setAckNumber(ackNumber);
+		acknowledgmentPkt.setAckSequenceNumber(++ackSequenceNumber);
+		acknowledgmentPkt.setDestinationID(session.getDestination().getSocketID());
+		acknowledgmentPkt.setSession(session);
 		session.doSend(acknowledgmentPkt);
 		statistics.incNumberOfACKSent();
+		statistics.incNumberOfLightACKSent();
+		trace.record(EventTrace.LIGHT_ACK_SENT, ackNumber, acknowledgmentPkt.getAckSequenceNumber());
 		return acknowledgmentPkt.getAckSequenceNumber();
 	}
 
 	protected long sendAcknowledgment(long ackNumber)throws IOException{
-		Acknowledgement acknowledgmentPkt = buildLightAcknowledgement(ackNumber);
+		Acknowledgement acknowledgmentPkt = buildAcknowledgement(ackNumber);
 		//set the estimate link capacity
 		estimateLinkCapacity=packetPairWindow.getEstimatedLinkCapacity();
 		acknowledgmentPkt.setEstimatedLinkCapacity(estimateLinkCapacity);
@@ -456,12 +516,15 @@ public class UDTReceiver {
 
 		statistics.incNumberOfACKSent();
 		statistics.setPacketArrivalRate(packetArrivalSpeed, estimateLinkCapacity);
+		trace.record(EventTrace.ACK_SENT, ackNumber, acknowledgmentPkt.getAckSequenceNumber());
+		//adapt the light ACK frequency to the current packet rate
+		ackInterval=ackPolicy.getLightAckInterval(ccAckInterval, packetArrivalSpeed, roundTripTime);
 		return acknowledgmentPkt.getAckSequenceNumber();
 	}
 
-	//builds a "light" Acknowledgement
-	private Acknowledgement buildLightAcknowledgement(long ackNumber){
-		Acknowledgement acknowledgmentPkt = new Acknowledgement();
+	//fills the (reused) Acknowledgement, without the rate and capacity
+	private Acknowledgement buildAcknowledgement(long ackNumber){
+		Acknowledgement acknowledgmentPkt = ackPacket;
 		//the packet sequence number to which all the packets have been received
 		acknowledgmentPkt.setAckNumber(ackNumber);
 		//assign this ack a unique increasing ACK sequence number
@@ -470,6 +533,12 @@ public class UDTReceiver {
 		acknowledgmentPkt.setRoundTripTimeVar(roundTripTimeVar);
 		//set the buffer size
 		acknowledgmentPkt.setBufferSize(bufferSize);
+		//report the smallest delay seen since the last ACK
+		if(minOneWayDelay!=Long.MAX_VALUE){
+			oneWayDelay=minOneWayDelay;
+			minOneWayDelay=Long.MAX_VALUE;
+		}
+		acknowledgmentPkt.setOneWayDelay(oneWayDelay);
 
 		acknowledgmentPkt.setDestinationID(session.getDestination().getSocketID());
 		acknowledgmentPkt.setSession(session);
@@ -487,20 +556,32 @@ public class UDTReceiver {
          rtt) / 8.  <br/>
       4) Update RTTVar by: RTTVar = (RTTVar * 3 + abs(RTT - rtt)) / 4.  <br/>
       5) Update both ACK and NAK period to 4 * RTT + RTTVar + SYN.  <br/>
+      As in the reference implementation, only the NAK period is updated this way, the
+      ACK period is decided by the {@link AdaptiveAckPolicy}.
 	 */
 	protected void onAck2PacketReceived(Acknowledgment2 ack2){
+		statistics.incNumberOfACK2Received();
 		AckHistoryEntry entry=ackHistoryWindow.getEntry(ack2.getAckSequenceNumber());
 		if(entry!=null){
 			long ackNumber=entry.getAckNumber();
 			largestAcknowledgedAckNumber=Math.max(ackNumber, largestAcknowledgedAckNumber);
 			
 			long rtt=entry.getAge();
-			if(roundTripTime>0)roundTripTime = (roundTripTime*7 + rtt)/8;
-			else roundTripTime = rtt;
-			roundTripTimeVar = (roundTripTimeVar* 3 + Math.abs(roundTripTimeVar- rtt)) / 4;
-			ackTimerInterval=4*roundTripTime+roundTripTimeVar+Util.getSYNTime();
-			nakTimerInterval=ackTimerInterval;
+			statistics.getAckTurnaroundHistogram().recordValue(rtt);
+			trace.record(EventTrace.ACK2_RECEIVED, ack2.getAckSequenceNumber(), rtt);
+			//the variance uses the previous RTT as reference, as in the C++ implementation
+			if(roundTripTime>0){
+				roundTripTimeVar = (roundTripTimeVar* 3 + Math.abs(roundTripTime- rtt)) / 4;
+				roundTripTime = (roundTripTime*7 + rtt)/8;
+			}
+			else{
+				roundTripTime = rtt;
+				roundTripTimeVar = rtt/2;
+			}
+			ackTimerInterval=ackPolicy.getAckTimerInterval(roundTripTime);
+			nakTimerInterval=4*roundTripTime+roundTripTimeVar+Util.getSYNTime();
 			statistics.setRTT(roundTripTime, roundTripTimeVar);
+			session.getEventNotifier().rttUpdated();
 		}
 	}
 
@@ -528,7 +609,22 @@ public class UDTReceiver {
 		expCount=0;
 	}
 	
+	/**
+	 * returns the number of entries in the receiver loss list
+	 */
+	public int getLossListSize(){
+		return receiverLossList.size();
+	}
+
+	/**
+	 * returns the current ack interval (number of data packets between light ACKs), or -1
+	 */
+	public long getAckInterval(){
+		return ackInterval;
+	}
+
 	public void setAckInterval(long ackInterval){
+		this.ccAckInterval=ackInterval;
 		this.ackInterval=ackInterval;
 	}
 	
@@ -33,27 +33,43 @@
 package udt;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import udt.jfr.JFRSupport;
 import udt.packets.Acknowledgement;
 import udt.packets.Acknowledgment2;
 import udt.packets.DataPacket;
 import udt.packets.KeepAlive;
 import udt.packets.NegativeAcknowledgement;
+import udt.sender.RateSample;
+import udt.sender.RateSampler;
 import udt.sender.SenderLossList;
+import udt.util.EventTrace;
 import udt.util.MeanThroughput;
 import udt.util.MeanValue;
 import udt.util.SequenceNumber;
 import udt.util.UDTStatistics;
+import udt.util.Util;
 
 /**
  * sender part of a UDT entity
@@ -75,14 +91,43 @@ public class UDTSender {
 	private final SenderLossList senderLossList;
 
 	// sendBuffer stores the sent data packets and their sequence numbers
-	private final Map<Long, byte[]> sendBuffer;
+	private final Map<Long, ByteBuffer> sendBuffer;
 
 	// protects against races when reading/writing to the sendBuffer
 	private final Object sendLock = new Object();
 
+	// per-packet send state for the delivery rate samples (guarded by sendLock)
+	private final RateSampler rateSampler;
+
+	// the congestion control, if it wants rate samples
+	private final RateSampleCongestionControl rateCC;
+
 	// number of unacknowledged data packets
 	private final AtomicInteger unacknowledged = new AtomicInteger(0);
 
+	// sequence numbers of packets the socket did not accept because its send buffer was full,
+	// in send order, mapped to true for retransmissions. They are not lost, and are sent again
+	// as soon as the channel is writable. Guarded by sendLock.
+	private final LinkedHashMap<Long, Boolean> writeBlocked = new LinkedHashMap<Long, Boolean>();
+
+	// true while the sender waits for the endpoint to report the channel writable
+	private final AtomicBoolean parked = new AtomicBoolean(false);
+
+	// true while the sender waits for data, an ACK opening the window, or lost packets
+	private final AtomicBoolean idle = new AtomicBoolean(false);
+
+	// max. number of new data packets sent together, if the endpoint uses batched I/O
+	private static final int SEND_BATCH = 64;
+
+	// encoded new data packets of the current send task, sent with one call to the endpoint
+	// when the batch is full or the task ends. Only used by the send task.
+	private final byte[][] sendBatch = new byte[SEND_BATCH][];
+	private final long[] sendBatchSequenceNumbers = new long[SEND_BATCH];
+	private final int[] sendBatchLengths = new int[SEND_BATCH];
+	private final long[] sendBatchInFlight = new long[SEND_BATCH];
+	private int sendBatchCount = 0;
+	private boolean batchSend = false;
+
 	// for generating data packet sequence numbers
 	private volatile long currentSequenceNumber = 0;
 
@@ -96,7 +141,20 @@ public class UDTSender {
 	private final ReentrantLock ackLock = new ReentrantLock();
 	private final Condition ackCondition = ackLock.newCondition();
 
+	// futures completed when the ACK number passes their sequence number, guarded by itself
+	private final SortedMap<Long, CompletableFuture<Void>> ackWaiters = new TreeMap<Long, CompletableFuture<Void>>(
+			new Comparator<Long>() {
+				public int compare(Long a, Long b) {
+					return Long.signum(SequenceNumber.compare(a, b));
+				}
+			});
+	private boolean stopped = false;
+
+	// time base for the data packet time stamps
+	private final long startTime = Util.getCurrentTime();
+
 	private final boolean storeStatistics;
+	private final EventTrace trace;
 	private Timer timer = new Timer(false);
 
 	public UDTSender(UDTSession session) {
@@ -106,25 +164,143 @@ public class UDTSender {
 		endpoint = session.getEndPoint();
 		statistics = session.getStatistics();
 		senderLossList = new SenderLossList();
-		sendBuffer = new ConcurrentHashMap<Long, byte[]>(session.getFlowWindowSize(), 0.75f, 2);
+		sendBuffer = new ConcurrentHashMap<Long, ByteBuffer>(session.getFlowWindowSize(), 0.75f, 2);
 		lastAckSequenceNumber = 0;// session.getInitialSequenceNumber();
 		currentSequenceNumber = lastAckSequenceNumber - 1;// session.getInitialSequenceNumber()-1;
 		storeStatistics = Boolean.getBoolean("udt.sender.storeStatistics");
+		trace = session.getEventTrace();
+		rateSampler = new RateSampler(session.getFlowWindowSize());
+		CongestionControl cc = session.getCongestionControl();
+		rateCC = cc instanceof RateSampleCongestionControl ? (RateSampleCongestionControl) cc : null;
 		initMetrics();
 
 	}
 
 	public void start() {
+		nextSendTaskTime = Util.getCurrentTime();
 		timer.schedule(new SenderTask(), 0);
 	}
 	
+	/**
+	 * called by the endpoint when the channel is writable again, resumes a parked sender
+	 * 
+	 * @return 1 if the sender was waiting for this, 0 otherwise
+	 */
 	public int sendData() {
-		System.out.println("simulater send");
-		return 0;
+		if (!parked.compareAndSet(true, false))
+			return 0;
+		schedule(0);
+		return 1;
+	}
+
+	/**
+	 * called when there may be something to send: data written by the application, an ACK
+	 * opening the congestion or flow window, or packets to retransmit. Restarts an idle sender.
+	 */
+	public void wakeUp() {
+		if (idle.compareAndSet(true, false)) {
+			schedule(0);
+		}
+	}
+
+	/**
+	 * true if the send task would send a packet now
+	 */
+	private boolean canSend() {
+		if (!senderLossList.isEmpty())
+			return true;
+		int unAcknowledged = unacknowledged.get();
+		return unAcknowledged < _session.getCongestionControl().getCongestionWindowSize()
+				&& unAcknowledged < _session.getFlowWindowSize() && !_session.flowWindow.isEmpty();
+	}
+
+	/**
+	 * schedule the next run of the send task
+	 * 
+	 * @param delay - milliseconds
+	 */
+	private void schedule(long delay) {
+		nextSendTaskTime = Util.getCurrentTime() + delay * 1000;
+		scheduleTask(new SenderTask(), delay);
+	}
+
+	/**
+	 * run a task on the timer thread of the sender
+	 * 
+	 * @param delay - milliseconds
+	 */
+	void scheduleTask(TimerTask task, long delay) {
+		Timer t = timer;
+		if (!_session.isShutdown() && null != t) {
+			try {
+				t.schedule(task, delay);
+			} catch (IllegalStateException ise) {
+				// sender stopped
+			}
+		}
+	}
+
+	/**
+	 * the socket send buffer is full: wait for the endpoint to report the channel writable,
+	 * instead of polling with the timer
+	 */
+	private void park() {
+		statistics.incNumberOfSocketBufferFullEvents();
+		parked.set(true);
+		endpoint.needtoSend();
+	}
+
+	/**
+	 * send the packets which the socket did not accept before
+	 * 
+	 * @return false if the socket send buffer is still full
+	 */
+	private boolean sendWriteBlocked() throws IOException {
+		while (true) {
+			Long seqNumber;
+			boolean isRetransmit;
+			ByteBuffer data;
+			synchronized (sendLock) {
+				if (writeBlocked.isEmpty()) {
+					return true;
+				}
+				Map.Entry<Long, Boolean> entry = writeBlocked.entrySet().iterator().next();
+				seqNumber = entry.getKey();
+				isRetransmit = entry.getValue();
+				data = sendBuffer.get(seqNumber);
+			}
+			// null if acknowledged in the meantime
+			if (data != null) {
+				long now = Util.getCurrentTime();
+				if (resend(seqNumber, data, now) <= 0) {
+					return false;
+				}
+				long inFlight = isRetransmit ? unacknowledged.get() : Math.max(0, unacknowledged.get() - 1);
+				onPacketSent(seqNumber, data.remaining(), now, inFlight, isRetransmit);
+			}
+			synchronized (sendLock) {
+				writeBlocked.remove(seqNumber);
+			}
+		}
+	}
+
+	/**
+	 * a packet the socket did not accept, send it again when the channel is writable
+	 */
+	private void addWriteBlocked(long seqNumber, boolean isRetransmit) {
+		synchronized (sendLock) {
+			writeBlocked.put(seqNumber, isRetransmit);
+		}
 	}
 	
+	// scheduled start of the next send task (microseconds)
+	private volatile long nextSendTaskTime;
+
 	public void sendTask() {
 		int totalSend = 0;
+		int retransmitted = 0;
+		long lateness = Util.getCurrentTime() - nextSendTaskTime;
+		statistics.getSenderLatenessHistogram().recordValue(lateness);
 		
 		long interval = (long) _session.getCongestionControl().getSendInterval();
 		long timer_period = interval;
@@ -132,23 +308,35 @@ public class UDTSender {
 		// TODO: 发送间隔是按照10ms为单位的，但是java无法提供如此细致的分辨率，所以实际的发送
 		// 需要做些调整才对。
 		int index =0;
+		// the socket send buffer is full
+		boolean blocked = false;
+		// nothing to send until wakeUp() is called
+		boolean waiting = false;
+		batchSend = endpoint.isBatchIO();
 		try {
+			blocked = !sendWriteBlocked();
 
-			for(index=0;index<256;index++)
+			for(index=0;index<256 && !blocked;index++)
 			{
 				// if the sender's loss list is not empty
 				Long entry = senderLossList.getFirstEntry();
 				if (entry != null) {
 
 					int len = handleRetransmit(entry);
-					if(len <= 0) {
-						// TODO: 发送失败，我们应该修改拥塞数据？
-						System.out.println("lost missing? " + entry);
-						// timer_period += 20;
+					if(len < 0) {
+						// already acknowledged (stale NAK) or write-blocked, nothing to resend
+						continue;
+					}
+					if(len == 0) {
+						// socket send buffer full, this is not a loss
+						trace.record(EventTrace.SEND_FAILED, entry, 1);
+						addWriteBlocked(entry, true);
+						blocked = true;
 						break;
 					}
 
 					totalSend += len;
+					retransmitted++;
 					continue;
 				}
 
@@ -159,12 +347,8 @@ public class UDTSender {
 
 				if (unAcknowledged >= _session.getCongestionControl().getCongestionWindowSize()) {
 					statistics.incNumberOfCCWindowExceededEvents();
-					// waitForAck();
-					// System.out.println("hold:" + unAcknowledged + " / " + _session.getCongestionControl().getCongestionWindowSize());
-					// TODO: calculate for wait timer period by unAcknowledged!
-					timer_period += unAcknowledged;
-					// timer.schedule(new SenderTask(), timer_period);
-					//return;
+					// continued by the next ACK
+					waiting = true;
 					break;
 				} else if (unAcknowledged < _session.getFlowWindowSize()) {
 					// check for application data
@@ -173,43 +357,99 @@ public class UDTSender {
 					if (dp != null) {
 						int len;
 						if((len = send(_session, dp)) <= 0) {
+							// socket send buffer full, this is not a loss
 							statistics.incNumberOfFailedSentDataPackets();
-							System.out.format("send failed number: %d total send: %d\r\n", dp.getPacketSequenceNumber(), index);
-							senderLossList.insert(dp.getPacketSequenceNumber());
-							// TODO: 发送失败，我们应该修改拥塞数据？
-							timer_period += 20 + unAcknowledged;
+							trace.record(EventTrace.SEND_FAILED, dp.getPacketSequenceNumber(), 0);
+							addWriteBlocked(dp.getPacketSequenceNumber(), false);
+							blocked = true;
 							break;
 						}
 						totalSend += len;
-						largestSentSequenceNumber = dp.getPacketSequenceNumber();
+						if (batchSend && sendBatchCount == SEND_BATCH && !flushSendBatch(true)) {
+							blocked = true;
+							break;
+						}
 					} else {
 						statistics.incNumberOfMissingDataEvents();
-						if(!havemore && sendBuffer.isEmpty()) {
-							System.out.println("no datas to send, stop sender");
-							return;
+						synchronized (sendLock) {
+							rateSampler.setAppLimited(unacknowledged.get());
 						}
-						timer_period = 20; // unAcknowledged;
+						// continued by the next write(), ACK or loss report
+						trace.record(EventTrace.NO_DATA, unAcknowledged, !havemore && sendBuffer.isEmpty() ? 1 : 0);
+						waiting = true;
 						break;
 					}
 				} else {
-					// TODO: 这个时候没有受限于拥塞，但是受限于流控
-					// 发送间隔显然与 unAcknowledged 数目有关
-					// 是否也与 LinkCapacity 相关呢？如果相关，应该怎么带入？
-					// timer_period = 20; //unAcknowledged / 10;
+					// flow window full, continued by the next ACK
+					waiting = true;
 					break;
 				}
 			}
+			if (sendBatchCount > 0 && !flushSendBatch(!blocked)) {
+				blocked = true;
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
 		// if(0!=index)		System.out.format("period %d %d index: %d\r\n", timer_period, index);
 
-		if(!_session.isShutdown() && null != timer) {
-			timer.schedule(new SenderTask(), timer_period/10);
+		if (retransmitted > 0) {
+			JFRSupport.retransmit(_session.getSocketID(), retransmitted);
+		}
+		if (JFRSupport.isSendTaskEnabled()) {
+			JFRSupport.sendTask(_session.getSocketID(), lateness, index, timer_period/10);
 		}
+
+		if (blocked) {
+			// continued by sendData() when the channel is writable
+			park();
+			return;
+		}
+
+		if (waiting) {
+			idle.set(true);
+			// the event may have happened before the flag was set
+			if (!canSend() || !idle.compareAndSet(true, false)) {
+				return;
+			}
+		}
+		schedule(timer_period / 10);
 	}
 	
+	/**
+	 * send the data packets collected by the send task with a single call to the endpoint.
+	 * Packets which the socket does not accept are sent again when it is writable.
+	 * 
+	 * @param trySend - false if the socket send buffer is known to be full
+	 * @return false if the socket send buffer is full
+	 */
+	private boolean flushSendBatch(boolean trySend) throws IOException {
+		int count = sendBatchCount;
+		int sent = 0;
+		long start = Util.getCurrentTime();
+		try {
+			if (trySend) {
+				sent = endpoint.doSend(_session, sendBatch, count);
+				statistics.getSendTimeHistogram().recordSince(start);
+			}
+		} finally {
+			// on error, the packets are recovered like lost ones
+			Arrays.fill(sendBatch, 0, count, null);
+			sendBatchCount = 0;
+		}
+		for (int i = 0; i < sent; i++) {
+			onPacketSent(sendBatchSequenceNumbers[i], sendBatchLengths[i], start, sendBatchInFlight[i], false);
+		}
+		for (int i = sent; i < count; i++) {
+			// socket send buffer full, this is not a loss
+			statistics.incNumberOfFailedSentDataPackets();
+			trace.record(EventTrace.SEND_FAILED, sendBatchSequenceNumbers[i], 0);
+			addWriteBlocked(sendBatchSequenceNumbers[i], false);
+		}
+		return sent == count;
+	}
+
 	private class SenderTask extends TimerTask {
 		@Override
 		public void run() {
@@ -233,16 +473,33 @@ public class UDTSender {
 	}
 
 	/**
-	 * sends the given data packet, storing the relevant information
+	 * sends the given data packet, storing the relevant information. The send is accounted
+	 * for once the socket accepted the packet, see {@link #onPacketSent(long, int, long, long, boolean)}
 	 */
 	private int send(UDTSession session, DataPacket p) throws IOException {
 		int val = 0;
+		long seqNo = p.getPacketSequenceNumber();
+		long now = Util.getCurrentTime();
+		long inFlight;
 		synchronized (sendLock) {
 			if (storeStatistics) {
 				dgSendInterval.end();
 				dgSendTime.begin();
 			}
-			val = endpoint.doSend(session, p);
+			p.setTimeStamp(now - startTime);
+			if (batchSend) {
+				// sent by flushSendBatch()
+				byte[] encoded = p.getEncoded();
+				sendBatch[sendBatchCount] = encoded;
+				sendBatchSequenceNumbers[sendBatchCount] = seqNo;
+				sendBatchLengths[sendBatchCount] = p.getLength();
+				sendBatchInFlight[sendBatchCount++] = unacknowledged.get();
+				val = encoded.length;
+			} else {
+				long sendStart = Util.getCurrentTime();
+				val = endpoint.doSend(session, p);
+				statistics.getSendTimeHistogram().recordSince(sendStart);
+			}
 
 			if (storeStatistics) {
 				dgSendTime.end();
@@ -257,13 +514,45 @@ public class UDTSender {
 			System.arraycopy(p.getData(), 0, data, 0, l);
 */
 //			sendBuffer.put(p.getPacketSequenceNumber(), data);
-			sendBuffer.put(p.getPacketSequenceNumber(), p.getData());
-			unacknowledged.incrementAndGet();
-			statistics.incNumberOfSentDataPackets();
+			sendBuffer.put(p.getPacketSequenceNumber(), p.getPayload());
+			inFlight = unacknowledged.getAndIncrement();
+		}
+		if (!batchSend && val > 0) {
+			onPacketSent(seqNo, p.getLength(), now, inFlight, false);
 		}
 		return val;
 	}
 
+	/**
+	 * update the statistics, the rate sampler and the congestion control for a data packet
+	 * the socket accepted
+	 * 
+	 * @param now - the send time
+	 * @param inFlight - the number of other packets in flight
+	 */
+	private void onPacketSent(long seqNo, int length, long now, long inFlight, boolean isRetransmit) {
+		boolean appLimited;
+		synchronized (sendLock) {
+			rateSampler.onSend(seqNo, length, now, inFlight, isRetransmit);
+			appLimited = rateSampler.isAppLimited();
+			if (isRetransmit) {
+				statistics.incNumberOfRetransmittedDataPackets();
+				statistics.addRetransmittedDataBytes(length);
+			} else {
+				statistics.incNumberOfSentDataPackets();
+				statistics.addSentDataBytes(length);
+			}
+			if (largestSentSequenceNumber < 0 || SequenceNumber.compare(seqNo, largestSentSequenceNumber) > 0) {
+				largestSentSequenceNumber = seqNo;
+			}
+		}
+		trace.record(isRetransmit ? EventTrace.RETRANSMIT : EventTrace.SEND, seqNo, inFlight);
+		_session.getCongestionControl().onPacketSend(seqNo);
+		if (rateCC != null) {
+			rateCC.onPacketSent(seqNo, length, now, inFlight, appLimited, isRetransmit);
+		}
+	}
+
 	// receive a packet from server from the peer
 	protected void receive(UDTPacket p) throws IOException {
 		if (p instanceof Acknowledgement) {
@@ -290,17 +579,43 @@ public class UDTSender {
 			long rttVar = acknowledgement.getRoundTripTimeVar();
 			cc.setRTT(rtt, rttVar);
 			statistics.setRTT(rtt, rttVar);
+			_session.getEventNotifier().rttUpdated();
 		}
 		long rate = acknowledgement.getPacketReceiveRate();
 		if (rate > 0) {
 			long linkCapacity = acknowledgement.getEstimatedLinkCapacity();
+			long previousRate = cc.getPacketArrivalRate();
 			cc.updatePacketArrivalRate(rate, linkCapacity);
+			if (cc.getPacketArrivalRate() != previousRate)
+				_session.getEventNotifier().rateChanged();
 			statistics.setPacketArrivalRate(cc.getPacketArrivalRate(), cc.getEstimatedLinkCapacity());
 		}
 
+		//a light ACK does not carry a delay sample
+		if (!acknowledgement.isLight()) {
+			cc.updateOneWayDelay(acknowledgement.getOneWayDelay());
+		}
+
 		long ackNumber = acknowledgement.getAckNumber();
+		RateSample rateSample = null;
+		synchronized (sendLock) {
+			long acked = SequenceNumber.seqOffset(lastAckSequenceNumber, ackNumber);
+			if (acked > 0) {
+				long inFlight = Math.max(0, unacknowledged.get() - acked);
+				rateSample = rateSampler.onAck(lastAckSequenceNumber, ackNumber, Util.getCurrentTime(), inFlight);
+			}
+		}
+		if (rateCC != null && rateSample != null) {
+			rateCC.onRateSample(rateSample);
+		}
 		cc.onACK(ackNumber);
 		statistics.setCongestionWindowSize((long) cc.getCongestionWindowSize());
+		if (acknowledgement.isLight()) {
+			trace.record(EventTrace.LIGHT_ACK_RECEIVED, ackNumber, 0);
+		} else {
+			trace.record(EventTrace.ACK_RECEIVED, ackNumber, rtt);
+		}
+		recordCCChange("ACK");
 		// need to remove all sequence numbers up the ack number from the
 		// sendBuffer
 		boolean removed = false;
@@ -315,8 +630,14 @@ public class UDTSender {
 			}
 		}
 		lastAckSequenceNumber = Math.max(lastAckSequenceNumber, ackNumber);
-		// send ACK2 packet to the receiver
-		sendAck2(ackNumber);
+		wakeUp();
+		completeAckWaiters();
+		// send ACK2 packet to the receiver, light ACKs are not acknowledged
+		if (acknowledgement.isLight()) {
+			statistics.incNumberOfLightACKReceived();
+		} else {
+			sendAck2(acknowledgement.getAckSequenceNumber(), ackNumber);
+		}
 		
 		int unAcknowledged = unacknowledged.get();
 		if(0 == unAcknowledged)
@@ -336,11 +657,18 @@ public class UDTSender {
 		for (Integer i : nak.getDecodedLossInfo()) {
 			senderLossList.insert(Long.valueOf(i));
 		}
+		wakeUp();
+		synchronized (sendLock) {
+			rateSampler.onLoss(nak.getDecodedLossInfo().size());
+		}
 		_session.getCongestionControl().onLoss(nak.getDecodedLossInfo());
 		statistics.incNumberOfNAKReceived();
-
-		System.out.println("NAK for " + nak.getDecodedLossInfo().size() + " packets lost, " + "set send period to "
-				+ _session.getCongestionControl().getSendInterval());
+		List<Integer> lost = nak.getDecodedLossInfo();
+		long firstLost = lost.isEmpty() ? -1 : lost.get(0);
+		trace.record(EventTrace.NAK_RECEIVED, firstLost, lost.size());
+		JFRSupport.nak(_session.getSocketID(), lost.size(), firstLost);
+		_session.getEventNotifier().lossReported(lost.size());
+		recordCCChange("NAK");
 
 		if (logger.isLoggable(Level.FINER)) {
 			logger.finer("NAK for " + nak.getDecodedLossInfo().size() + " packets lost, " + "set send period to "
@@ -356,12 +684,60 @@ public class UDTSender {
 		endpoint.doSend(_session, keepAlive);
 	}
 
-	private void sendAck2(long ackSequenceNumber) throws IOException {
-		Acknowledgment2 ackOfAckPkt = new Acknowledgment2();
+	// reused for sending ACK2, the endpoint encodes it synchronously
+	private final Acknowledgment2 ackOfAckPkt = new Acknowledgment2();
+
+	// time and ack number of the last ACK2 sent
+	private long lastAck2Time = 0;
+	private long lastAck2AckNumber = -1;
+
+	/**
+	 * ACK2 is sampled as in the reference implementation: it is sent at most once per SYN,
+	 * unless the ACK repeats the ack number of the last ACK2 (i.e. the ACK2 may have been lost)
+	 * 
+	 * @param ackSequenceNumber - the ACK sequence number of the ACK to be acknowledged
+	 * @param ackNumber - the ack number (data sequence number) of the ACK
+	 */
+	private void sendAck2(long ackSequenceNumber, long ackNumber) throws IOException {
+		long now = Util.getCurrentTime();
+		if (now - lastAck2Time < Util.getSYNTime() && ackNumber != lastAck2AckNumber) {
+			return;
+		}
+		lastAck2Time = now;
+		lastAck2AckNumber = ackNumber;
 		ackOfAckPkt.setAckSequenceNumber(ackSequenceNumber);
 		ackOfAckPkt.setSession(_session);
 		ackOfAckPkt.setDestinationID(_session.getDestination().getSocketID());
 		endpoint.doSend(_session, ackOfAckPkt);
+		statistics.incNumberOfACK2Sent();
+		trace.record(EventTrace.ACK2_SENT, ackSequenceNumber, ackNumber);
+	}
+
+	// congestion control state last recorded
+	private double recordedCongestionWindowSize = -1;
+	private double recordedSendPeriod = -1;
+
+	/**
+	 * record the congestion control state in the event trace and as JFR event, if it has changed
+	 * 
+	 * @param cause - the event that may have changed it
+	 */
+	void recordCCChange(String cause) {
+		boolean jfr = JFRSupport.isCongestionControlEnabled();
+		if (!trace.isEnabled() && !jfr && !_session.getEventNotifier().isActive())
+			return;
+		CongestionControl cc = _session.getCongestionControl();
+		double cwnd = cc.getCongestionWindowSize();
+		double period = cc.getSendInterval();
+		if (cwnd != recordedCongestionWindowSize || period != recordedSendPeriod) {
+			recordedCongestionWindowSize = cwnd;
+			recordedSendPeriod = period;
+			trace.recordCC(cwnd, period);
+			_session.getEventNotifier().rateChanged();
+			if (jfr) {
+				JFRSupport.congestionControl(_session.getSocketID(), cause, period, cwnd);
+			}
+		}
 	}
 
 	private final DataPacket retransmit = new DataPacket();
@@ -370,35 +746,69 @@ public class UDTSender {
 	 * re-transmit an entry from the sender loss list
 	 * 
 	 * @param entry
+	 * @return the number of bytes sent, <code>0</code> if the socket send buffer is full,
+	 *         or <code>-1</code> if the packet has been acknowledged in the meantime or is
+	 *         waiting for the socket anyway
 	 */
 	private int handleRetransmit(Long seqNumber) {
+		ByteBuffer data;
+		synchronized (sendLock) {
+			// a NAK may arrive after the ACK that covers it, and a write-blocked
+			// packet is sent as soon as the channel is writable
+			data = writeBlocked.containsKey(seqNumber) ? null : sendBuffer.get(seqNumber);
+		}
+		if (data == null) {
+			return -1;
+		}
 		int len = 0;
 		try {
-			// retransmit the packet and remove it from the list
-			byte[] data = sendBuffer.get(seqNumber);
-			assert(data != null);
-
-			retransmit.setPacketSequenceNumber(seqNumber);
-			retransmit.setSession(_session);
-			retransmit.setDestinationID(_session.getDestination().getSocketID());
-			retransmit.setData(data);
-			len = endpoint.doSend(_session, retransmit);
-			statistics.incNumberOfRetransmittedDataPackets();
+			long now = Util.getCurrentTime();
+			len = resend(seqNumber, data, now);
+			if (len > 0) {
+				onPacketSent(seqNumber, data.remaining(), now, unacknowledged.get(), true);
+			}
 		} catch (Exception e) {
 			logger.log(Level.WARNING, "", e);
 		}
 		return len;
 	}
 
+	/**
+	 * send a packet from the send buffer again
+	 * 
+	 * @return the number of bytes sent, <code>0</code> if the socket send buffer is full
+	 */
+	private int resend(long seqNumber, ByteBuffer data, long now) throws IOException {
+		retransmit.setPacketSequenceNumber(seqNumber);
+		retransmit.setSession(_session);
+		retransmit.setDestinationID(_session.getDestination().getSocketID());
+		retransmit.setData(data);
+		retransmit.setTimeStamp(now - startTime);
+		int len = endpoint.doSend(_session, retransmit);
+		statistics.getSendTimeHistogram().recordSince(now);
+		return len;
+	}
+
 	/**
 	 * for processing EXP event (see spec. p 13)
+	 * 
+	 * @return <code>true</code> if there were unacknowledged packets
 	 */
-	protected void putUnacknowledgedPacketsIntoLossList() {
+	protected boolean putUnacknowledgedPacketsIntoLossList() {
+		boolean pending;
 		synchronized (sendLock) {
 			for (Long l : sendBuffer.keySet()) {
-				senderLossList.insert(l);
+				// write-blocked packets are sent as soon as the channel is writable
+				if (!writeBlocked.containsKey(l)) {
+					senderLossList.insert(l);
+				}
 			}
+			pending = !sendBuffer.isEmpty();
+		}
+		if (pending) {
+			wakeUp();
 		}
+		return pending;
 	}
 
 	/**
@@ -421,6 +831,17 @@ public class UDTSender {
 		return largestSentSequenceNumber;
 	}
 
+	/**
+	 * records a data packet that was put on the wire outside of this sender, for
+	 * subclasses only: the simulator (udt.sim) moves its packets itself, but the
+	 * congestion control relies on the largest sent sequence number
+	 */
+	protected void onPacketSentExternally(long sequenceNumber) {
+		if (largestSentSequenceNumber < 0 || SequenceNumber.compare(sequenceNumber, largestSentSequenceNumber) > 0) {
+			largestSentSequenceNumber = sequenceNumber;
+		}
+	}
+
 	/**
 	 * returns the last Ack. sequence number
 	 */
@@ -428,8 +849,23 @@ public class UDTSender {
 		return lastAckSequenceNumber;
 	}
 
+	/**
+	 * returns the number of packets sent but not yet acknowledged
+	 */
+	public int getUnacknowledged() {
+		return unacknowledged.get();
+	}
+
+	/**
+	 * returns the number of entries in the sender loss list
+	 */
+	public int getLossListSize() {
+		return senderLossList.size();
+	}
+
 	boolean haveAcknowledgementFor(long sequenceNumber) {
-		return SequenceNumber.compare(sequenceNumber, lastAckSequenceNumber) <= 0;
+		// the ACK number is the first sequence number not yet received
+		return SequenceNumber.compare(sequenceNumber, lastAckSequenceNumber) < 0;
 	}
 
 	boolean isSentOut(long sequenceNumber) {
@@ -446,13 +882,10 @@ public class UDTSender {
 	 * @throws InterruptedException
 	 */
 	public void waitForAck(long sequenceNumber) throws InterruptedException {
-		while (!_session.isShutdown() && !haveAcknowledgementFor(sequenceNumber)) {
-			ackLock.lock();
-			try {
-				ackCondition.await(100, TimeUnit.MICROSECONDS);
-			} finally {
-				ackLock.unlock();
-			}
+		try {
+			whenAcknowledged(sequenceNumber).get();
+		} catch (ExecutionException e) {
+			// sender stopped
 		}
 	}
 
@@ -481,8 +914,59 @@ public class UDTSender {
 		}
 	}
 
+	/**
+	 * the returned future is completed when the peer has acknowledged the data packet with the
+	 * given sequence number, or completed exceptionally when the sender is stopped before.
+	 * Dependent actions which are not async run in the thread receiving the ACK, so they must not block.
+	 */
+	CompletableFuture<Void> whenAcknowledged(long sequenceNumber) {
+		synchronized (ackWaiters) {
+			if (haveAcknowledgementFor(sequenceNumber)) {
+				return CompletableFuture.completedFuture(null);
+			}
+			CompletableFuture<Void> f = ackWaiters.get(sequenceNumber);
+			if (f == null) {
+				f = new CompletableFuture<Void>();
+				if (stopped) {
+					f.completeExceptionally(new IOException("Session closed"));
+					return f;
+				}
+				ackWaiters.put(sequenceNumber, f);
+			}
+			return f;
+		}
+	}
+
+	private void completeAckWaiters() {
+		List<CompletableFuture<Void>> done;
+		synchronized (ackWaiters) {
+			if (ackWaiters.isEmpty()) {
+				return;
+			}
+			SortedMap<Long, CompletableFuture<Void>> acked = ackWaiters.headMap(lastAckSequenceNumber);
+			if (acked.isEmpty()) {
+				return;
+			}
+			done = new ArrayList<CompletableFuture<Void>>(acked.values());
+			acked.clear();
+		}
+		for (CompletableFuture<Void> f : done) {
+			f.complete(null);
+		}
+	}
+
 	public void stop() {
 		timer.cancel();
 		timer = null;
+		List<CompletableFuture<Void>> pending;
+		synchronized (ackWaiters) {
+			stopped = true;
+			pending = new ArrayList<CompletableFuture<Void>>(ackWaiters.values());
+			ackWaiters.clear();
+		}
+		for (CompletableFuture<Void> f : pending) {
+			f.completeExceptionally(new IOException("Session closed"));
+		}
+		_session.abortReferences();
 	}
 }
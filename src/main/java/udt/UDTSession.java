@@ -32,21 +32,32 @@
 
 package udt;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import udt.jfr.JFRSupport;
 import udt.packets.ConnectionHandshake;
 import udt.packets.DataPacket;
 import udt.packets.Destination;
 import udt.packets.Shutdown;
 import udt.sender.FlowWindow;
+import udt.util.EventTrace;
 import udt.util.ReceiveBuffer;
 import udt.util.SequenceNumber;
 import udt.util.UDTStatistics;
+import udt.util.Util;
 
 public abstract class UDTSession {
 
@@ -109,6 +120,46 @@ public abstract class UDTSession {
 	 * @see CongestionControl
 	 */
 	public static final String CC_CLASS="udt.congestioncontrol.class";
+
+	/**
+	 * system property for a directory where the statistics history of each session is
+	 * written to (if <code>udt.sender.storeStatistics</code> is set)
+	 */
+	public static final String STATISTICS_HISTORY_DIR="udt.statistics.historyDir";
+
+	/**
+	 * system property to enable coalescing of small writes into full data packets (default false).
+	 * Message boundaries are not preserved in this mode.
+	 * @see #write(ByteBuffer[])
+	 */
+	public static final String COALESCE="udt.session.coalesce";
+
+	/**
+	 * system property for the max. time in milliseconds a partially filled data packet
+	 * waits for more writes before it is sent (default 1)
+	 */
+	public static final String COALESCE_DELAY="udt.session.coalesceDelay";
+
+	private final boolean coalesce=Boolean.getBoolean(COALESCE);
+
+	private final long coalesceDelay=Math.max(0, Integer.getInteger(COALESCE_DELAY, 1));
+
+	//serializes the writes
+	private final Object writeLock=new Object();
+
+	//the partially filled data chunk when coalescing writes, guarded by writeLock
+	private byte[] pending;
+	private int pendingLength=0;
+	//number of chunks published so far, to ignore outdated flush tasks
+	private long pendingChunks=0;
+	//the chunk for which a flush task has been scheduled
+	private long flushScheduled=-1;
+
+	private static final ByteBuffer EMPTY=ByteBuffer.allocate(0);
+
+	//data of writeZeroCopy() not yet handed to the sender, guarded by writeLock
+	private final ArrayDeque<Reference> references=new ArrayDeque<Reference>();
+	private volatile boolean referencesQueued=false;
 	
 	/**
 	 * Buffer size (i.e. datagram size)
@@ -122,6 +173,12 @@ public abstract class UDTSession {
 	
 	private final static AtomicLong nextSocketID=new AtomicLong(20+new Random().nextInt(5000));
 	public final ReceiveBuffer receiveBuffer;
+
+	//protocol event trace (disabled by default)
+	protected final EventTrace eventTrace;
+
+	//delivers events to the session listeners
+	private final SessionEventNotifier eventNotifier=new SessionEventNotifier(this);
 	
 	final int chunksize;
 	
@@ -143,11 +200,21 @@ public abstract class UDTSession {
 		cc=(CongestionControl)ccObject;
 		logger.info("Using "+cc.getClass().getName());
 		
-		receiveBuffer=new ReceiveBuffer(2 * getFlowWindowSize());
+		eventTrace=new EventTrace(mySocketID);
+		receiveBuffer=new ReceiveBuffer(2 * getFlowWindowSize(), statistics.getDeliveryLatencyHistogram());
 		chunksize=getDatagramSize()-24;//need space for the header;
 		flowWindow=new FlowWindow(getFlowWindowSize(),chunksize);
 		receiver=new UDTReceiver(this);
 		sender=new UDTSender(this);
+		String historyDir=System.getProperty(STATISTICS_HISTORY_DIR);
+		if(historyDir!=null){
+			File historyFile=new File(historyDir, "udt-statistics-"+mySocketID+".csv");
+			try{
+				statistics.startParameterHistory(historyFile);
+			}catch(IOException ex){
+				logger.log(Level.WARNING,"Can't write statistics history to <"+historyFile+">",ex);
+			}
+		}
 	}
 	
 	public void startSender() {
@@ -159,9 +226,16 @@ public abstract class UDTSession {
 	public final boolean onDataPacketReceived(DataPacket packet) {
 		
 		if(!receiveBuffer.offer(new AppData((packet.getPacketSequenceNumber()-getInitialSequenceNumber()), packet.getData()))) {
-			System.out.println("data packet overload");
+			eventTrace.record(EventTrace.DROP, packet.getPacketSequenceNumber(), 0);
+			eventNotifier.receiveBufferDrop();
+			if(logger.isLoggable(Level.FINER)){
+				logger.finer("Receive buffer full, dropping "+packet.getPacketSequenceNumber());
+			}
 			return false;
 		}
+		if(eventNotifier.isActive() && receiveBuffer.getNumValidChunks()*4>=receiveBuffer.getSize()*3){
+			eventNotifier.receiveBufferHigh();
+		}
 		onDataReceive(packet);
 		return false;
 	}
@@ -175,6 +249,25 @@ public abstract class UDTSession {
 	}
 
 	public abstract void setState(int state);
+
+	//start of the connection handshake (microseconds)
+	private long handshakeStartTime=0;
+
+	/**
+	 * to be called by {@link #setState(int)} implementations, records the session lifecycle
+	 */
+	protected void onStateChanged(int oldState, int newState){
+		if(oldState==newState)return;
+		String peer=String.valueOf(targetAddress);
+		JFRSupport.sessionState(mySocketID, peer, oldState, newState);
+		if(newState==handshaking && handshakeStartTime==0){
+			handshakeStartTime=Util.getCurrentTime();
+		}
+		else if(newState==ready && handshakeStartTime>0){
+			JFRSupport.handshake(mySocketID, peer, Util.getCurrentTime()-handshakeStartTime);
+			handshakeStartTime=-1;
+		}
+	}
 	
 	public boolean isReady(){
 		return state==ready;
@@ -208,10 +301,25 @@ public abstract class UDTSession {
 		return statistics;
 	}
 
+	/**
+	 * the event trace of this session (see {@link EventTrace})
+	 */
+	public EventTrace getEventTrace(){
+		return eventTrace;
+	}
+
 	public long getSocketID(){
 		return mySocketID;
 	}
 
+	/**
+	 * the clock used by the congestion control of this session, in microseconds.
+	 * Returns {@link Util#getCurrentTime()}, the simulator overrides it with its virtual time
+	 */
+	public long getCurrentTime(){
+		return Util.getCurrentTime();
+	}
+
 	
 	public synchronized long getInitialSequenceNumber(){
 		if(initialSequenceNumber==null){
@@ -375,42 +483,330 @@ public abstract class UDTSession {
 	}
 	
 
+	/**
+	 * write data, see {@link #write(ByteBuffer[])}
+	 * @return the number of bytes accepted, 0 if the flow window is full
+	 */
 	public int write(byte[] b, int len) {
+		return write(b, 0, len);
+	}
+
+	/**
+	 * write data, see {@link #write(ByteBuffer[])}
+	 * @return the number of bytes accepted, 0 if the flow window is full
+	 */
+	public int write(byte[] b, int off, int len) {
+		return write(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * write the remaining bytes of the buffer, see {@link #write(ByteBuffer[])}
+	 * @return the number of bytes accepted, 0 if the flow window is full
+	 */
+	public int write(ByteBuffer src) {
+		return (int)write(new ByteBuffer[]{src});
+	}
+
+	/**
+	 * write the remaining bytes of the buffers, split into data packets of up to
+	 * {@link #getDatagramSize()}-24 bytes. The data is copied once, so the buffers can be reused
+	 * when this method returns. The positions of the buffers are advanced by the number of bytes
+	 * accepted, which is less than the number of bytes remaining if the flow window is full.
+	 * Without coalescing, each data packet is filled from consecutive buffers, and a write of
+	 * up to one data packet is sent as one data packet.<br/>
+	 * If coalescing is enabled (see {@link #COALESCE}), the data is appended to the
+	 * current data packet, which is sent when it is full, after the coalescing delay, or on {@link #flush()}.
+	 * In both modes, a buffer of up to one data packet is accepted completely or not at all.
+	 * 
+	 * @return the number of bytes accepted, 0 if the flow window is full
+	 */
+	public long write(ByteBuffer[] srcs) {
+		long written=0;
+		synchronized (writeLock) {
+			//data of writeZeroCopy() is sent first
+			if(produceReferences()){
+				if(coalesce){
+					for(ByteBuffer src: srcs){
+						written+=coalesce(src);
+						if(src.hasRemaining())break;
+					}
+				}
+				else{
+					written=segment(srcs);
+				}
+			}
+		}
+		if(written==0 && remaining(srcs)>0)eventNotifier.sendBufferFull();
+		return written;
+	}
+
+	/**
+	 * split the data into chunks and hand them to the sender, called with the writeLock held
+	 * @return the number of bytes accepted
+	 */
+	private long segment(ByteBuffer[] srcs){
+		long written=0;
+		long remaining=remaining(srcs);
+		int i=0;
+		while(remaining>0 && !flowWindow.isFull()){
+			int n=(int)Math.min(remaining, chunksize);
+			//the sender keeps the array for retransmission, so it cannot be reused
+			byte[]data=new byte[n];
+			for(int off=0;off<n;){
+				while(!srcs[i].hasRemaining())i++;
+				int l=Math.min(n-off, srcs[i].remaining());
+				srcs[i].get(data, off, l);
+				off+=l;
+			}
+			produce(data, n);
+			written+=n;
+			remaining-=n;
+		}
+		return written;
+	}
+
+	private static long remaining(ByteBuffer[] srcs){
+		long remaining=0;
+		for(ByteBuffer src: srcs){
+			remaining+=src.remaining();
+		}
+		return remaining;
+	}
+
+	/**
+	 * send the remaining bytes of the buffer without copying them: the data packets reference
+	 * slices of the buffer, also when they are retransmitted. The buffer content must not be modified
+	 * until the returned future is completed, i.e. until the peer has acknowledged all of the data.
+	 * The position of the buffer is not changed, a read-only buffer can be passed.<br/>
+	 * This method does not block. Data which does not fit into the flow window is handed to the
+	 * sender when there is room, and data written afterwards is sent after it.
+	 * If the buffer is direct and the channel of the endpoint is connected to the peer
+	 * (see {@link UDPEndPoint#CONNECT}), the data is written to the socket without any copy.<br/>
+	 * The future is completed exceptionally if the session is closed before. Dependent actions
+	 * which are not async run in the thread receiving the ACK, so they must not block.
+	 */
+	public CompletableFuture<Void> writeZeroCopy(ByteBuffer src){
+		Reference r=new Reference(src.slice());
+		if(isShutdown()){
+			r.future.completeExceptionally(new IOException("Session closed"));
+			return r.future;
+		}
+		synchronized (writeLock) {
+			references.add(r);
+			referencesQueued=true;
+			produceReferences();
+		}
+		return r.future;
+	}
+
+	/**
+	 * hand the data of writeZeroCopy() to the sender, called with the writeLock held
+	 * @return false if some data is still queued because the flow window is full
+	 */
+	private boolean produceReferences(){
+		if(!referencesQueued)return true;
+		//a partially filled chunk was written before
+		if(pendingLength>0 && !producePending())return false;
+		Reference r;
+		while((r=references.peek())!=null){
+			if(!r.produce())return false;
+			references.poll();
+		}
+		referencesQueued=false;
+		return true;
+	}
+
+	/**
+	 * fail the data of writeZeroCopy() which has not been handed to the sender,
+	 * called when the sender is stopped
+	 */
+	void abortReferences(){
+		synchronized (writeLock) {
+			Reference r;
+			while((r=references.poll())!=null){
+				r.future.completeExceptionally(new IOException("Session closed"));
+			}
+			referencesQueued=false;
+		}
+	}
+
+	/**
+	 * hand a data chunk to the sender
+	 * @return false if the flow window is full
+	 */
+	private boolean produce(byte[] data, int length){
 		DataPacket packet = flowWindow.getForProducer();
-		if(packet==null)
-			return 0;
+		if(packet==null){
+			return false;
+		}
+		packet.setData(data);
+		packet.setLength(length);
+		produce(packet);
+		return true;
+	}
 
-		packet.setPacketSequenceNumber(sender.getNextSequenceNumber());
+	/**
+	 * number the data packet obtained from the flow window and hand it to the sender
+	 * @return the sequence number
+	 */
+	private long produce(DataPacket packet){
+		long sequenceNumber=sender.getNextSequenceNumber();
+		packet.setPacketSequenceNumber(sequenceNumber);
 		packet.setSession(this);
 		packet.setDestinationID(getDestination().getSocketID());
-		int sendlen=Math.min(len,chunksize);
-		packet.setData(b);
-		packet.setLength(sendlen);
 		flowWindow.produce();
-		// endPoint.needtoSend();
-		return len;
+		sender.wakeUp();
+		return sequenceNumber;
 	}
 
 	/**
-	 * will block until the outstanding packets have really been sent out
-	 * and acknowledged
+	 * the data of a writeZeroCopy() call, guarded by the writeLock
 	 */
-	public void flush() throws InterruptedException{
-		// if(!active)return;
-		final long seqNo=sender.getCurrentSequenceNumber();
-		if(seqNo<0)throw new IllegalStateException();
-		while(!sender.isSentOut(seqNo)){
-			Thread.sleep(5);
+	private class Reference {
+		final ByteBuffer data;
+		final CompletableFuture<Void> future=new CompletableFuture<Void>();
+		long lastSequenceNumber=-1;
+
+		Reference(ByteBuffer data){
+			this.data=data;
 		}
-		System.out.println("flash seqNo:" + seqNo);
-		if(seqNo>-1){
-			//wait until data has been sent out and acknowledged
-			while(active && !sender.haveAcknowledgementFor(seqNo)){
-				sender.waitForAck(seqNo);
+
+		/**
+		 * hand the rest of the data to the sender, slice by slice
+		 * @return false if the flow window is full
+		 */
+		boolean produce(){
+			while(data.hasRemaining()){
+				DataPacket packet=flowWindow.getForProducer();
+				if(packet==null)return false;
+				int n=Math.min(data.remaining(), chunksize);
+				ByteBuffer slice=data.slice();
+				slice.limit(n);
+				data.position(data.position()+n);
+				packet.setData(slice);
+				lastSequenceNumber=UDTSession.this.produce(packet);
 			}
+			//without data, wait for the data written before
+			long last=lastSequenceNumber>=0?lastSequenceNumber:sender.getCurrentSequenceNumber();
+			completeWith(sender.whenAcknowledged(last), future);
+			return true;
 		}
-		//TODO need to check if we can pause the sender...
-		//sender.pause();
+	}
+
+	/**
+	 * complete the target when the source is completed
+	 */
+	private static void completeWith(CompletableFuture<Void> source, final CompletableFuture<Void> target){
+		source.whenComplete(new BiConsumer<Void, Throwable>(){
+			public void accept(Void v, Throwable t){
+				if(t!=null)target.completeExceptionally(t);
+				else target.complete(null);
+			}
+		});
+	}
+
+	/**
+	 * append the data to the current chunk, handing full chunks to the sender,
+	 * called with the writeLock held
+	 * @return the number of bytes accepted
+	 */
+	private int coalesce(ByteBuffer src){
+		if(pending==null)pending=new byte[chunksize];
+		int len=src.remaining();
+		int written=0;
+		while(written<len){
+			if(pendingLength==chunksize && !producePending())break;
+			//a write of up to one chunk is not split if the flow window is full
+			if(written==0 && len<=chunksize && len>chunksize-pendingLength && flowWindow.isFull())break;
+			int n=Math.min(len-written, chunksize-pendingLength);
+			src.get(pending, pendingLength, n);
+			pendingLength+=n;
+			written+=n;
+		}
+		if(pendingLength==chunksize)producePending();
+		if(pendingLength>0 && flushScheduled!=pendingChunks)scheduleFlush();
+		return written;
+	}
+
+	/**
+	 * hand the current chunk to the sender, called with the writeLock held
+	 * @return false if the flow window is full
+	 */
+	private boolean producePending(){
+		//the sender keeps the array for retransmission
+		byte[]data=pendingLength==chunksize?pending:Arrays.copyOf(pending, pendingLength);
+		if(!produce(data, pendingLength))return false;
+		if(data==pending)pending=new byte[chunksize];
+		pendingLength=0;
+		pendingChunks++;
+		return true;
+	}
+
+	/**
+	 * send the current chunk after the coalescing delay, unless it has been sent before
+	 */
+	private void scheduleFlush(){
+		final long chunk=pendingChunks;
+		flushScheduled=chunk;
+		sender.scheduleTask(new TimerTask(){
+			public void run(){
+				synchronized (writeLock) {
+					if(chunk!=pendingChunks || pendingLength==0)return;
+					//flow window full, try again later
+					if(!producePending())scheduleFlush();
+				}
+			}
+		}, coalesceDelay);
+	}
+
+	/**
+	 * the returned future is completed when all data written so far has been acknowledged by the peer,
+	 * or completed exceptionally if the session is closed before. A partially filled data packet
+	 * (see {@link #COALESCE}) is sent right away. Dependent actions which are not async run
+	 * in the thread receiving the ACK, so they must not block.
+	 */
+	public CompletableFuture<Void> flushAsync(){
+		return writeZeroCopy(EMPTY);
+	}
+
+	/**
+	 * the returned future is completed when the peer has acknowledged the data packet with the given
+	 * sequence number (see {@link UDTSender#getCurrentSequenceNumber()}), or completed exceptionally
+	 * if the session is closed before. Dependent actions which are not async run in the thread
+	 * receiving the ACK, so they must not block.
+	 */
+	public CompletableFuture<Void> whenAcknowledged(long sequenceNumber){
+		CompletableFuture<Void> f=new CompletableFuture<Void>();
+		completeWith(sender.whenAcknowledged(sequenceNumber), f);
+		return f;
+	}
+
+	/**
+	 * will block until the outstanding packets have really been sent out
+	 * and acknowledged, or the session is closed
+	 */
+	public void flush() throws InterruptedException{
+		try{
+			flushAsync().get();
+		}catch(ExecutionException ex){
+			//session closed
+		}
+	}
+
+	/**
+	 * register a listener for RTT, loss, rate and buffer events of this session
+	 * @see SessionListener
+	 */
+	public void addSessionListener(SessionListener listener){
+		eventNotifier.addListener(listener);
+	}
+
+	public void removeSessionListener(SessionListener listener){
+		eventNotifier.removeListener(listener);
+	}
+
+	SessionEventNotifier getEventNotifier(){
+		return eventNotifier;
 	}
 
 	public UDTReceiver getReceiver() {
@@ -435,6 +831,11 @@ public abstract class UDTSession {
 	public abstract void onSendEmpty();
 	
 	public boolean onDataRequest() {
+		if(referencesQueued){
+			synchronized (writeLock) {
+				produceReferences();
+			}
+		}
 		if(flowWindow.isLow())
 				return onSessionDataRequest();
 
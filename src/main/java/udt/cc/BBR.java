@@ -0,0 +1,317 @@
+package udt.cc;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.RateSampleCongestionControl;
+import udt.UDTCongestionControl;
+import udt.UDTSession;
+import udt.sender.RateSample;
+import udt.util.Util;
+
+/**
+ * model-based congestion control in the style of BBR
+ * ("BBR: Congestion-Based Congestion Control", Cardwell et al.)<br/>
+ *
+ * Instead of reacting to loss, the sender keeps a model of the path consisting
+ * of the bottleneck bandwidth (windowed maximum of the delivery rate samples
+ * provided by the sender) and the minimum round trip time. It paces at the estimated
+ * bandwidth and limits the data in flight to a small multiple of the
+ * bandwidth-delay product. Random loss does not change the model, so throughput
+ * stays close to the capacity on lossy long-haul links.<br/>
+ *
+ * To use it, set the system property <code>udt.congestioncontrol.class=udt.cc.BBR</code>
+ */
+public class BBR extends UDTCongestionControl implements RateSampleCongestionControl {
+
+	private static final Logger logger=Logger.getLogger(BBR.class.getName());
+
+	private static enum Mode {STARTUP, DRAIN, PROBE_BW, PROBE_RTT}
+
+	//2/ln(2), the smallest gain that doubles the sending rate every round
+	static final double HIGH_GAIN=2.885;
+
+	//pacing gain cycle used in PROBE_BW mode
+	static final double[] PACING_GAIN_CYCLE={1.25, 0.75, 1, 1, 1, 1, 1, 1};
+
+	static final double CWND_GAIN=2;
+
+	//loss rate in a round which ends STARTUP, above the random loss of lossy links,
+	//and the min. number of lost packets, so a single loss in the first rounds does not count
+	static final double STARTUP_LOSS_RATE=0.02;
+	static final int STARTUP_LOSS_PACKETS=8;
+
+	//number of rounds used for the windowed max bandwidth filter
+	static final int BW_FILTER_ROUNDS=10;
+
+	//min RTT expires after 10 seconds (in microseconds)
+	static final long MIN_RTT_WINDOW=10*1000*1000;
+
+	//time spent in PROBE_RTT mode (in microseconds)
+	static final long PROBE_RTT_TIME=200*1000;
+
+	//minimum congestion window in packets
+	static final double MIN_CWND=4;
+
+	private Mode mode=Mode.STARTUP;
+
+	private double pacingGain=HIGH_GAIN;
+
+	private double cwndGain=HIGH_GAIN;
+
+	//bandwidth samples (packets per second) for the last rounds, and the round they were taken in
+	private final double[] bwSamples=new double[BW_FILTER_ROUNDS];
+	private final long[] bwSampleRounds=new long[BW_FILTER_ROUNDS];
+
+	//estimated bottleneck bandwidth in packets per second
+	private double btlBw=0;
+
+	//min RTT in microseconds and the time it was measured
+	private long minRTT=-1;
+	private long minRTTStamp=0;
+
+	//round counting: a round ends when the packet sent at the start of the round is acknowledged
+	private long roundCount=0;
+	private long nextRoundDelivered=0;
+	private boolean roundStart=false;
+
+	private long packetsInFlight=0;
+
+	//STARTUP exit: bandwidth did not grow by 25% for three rounds,
+	//or more than STARTUP_LOSS_RATE of the packets of a round were lost
+	private double fullBw=0;
+	private int fullBwCount=0;
+	private boolean filledPipe=false;
+	private long roundDeliveredPackets=0;
+	private long roundLostPackets=0;
+
+	//PROBE_BW gain cycling
+	private int cycleIndex=0;
+	private long cycleStamp=0;
+
+	//PROBE_RTT state
+	private long probeRTTDoneStamp=0;
+	private long probeMinRTT=-1;
+	private double savedCwnd=0;
+
+	public BBR(UDTSession session){
+		super(session);
+	}
+
+	@Override
+	public void init() {
+		mode=Mode.STARTUP;
+		pacingGain=HIGH_GAIN;
+		cwndGain=HIGH_GAIN;
+	}
+
+	@Override
+	public void setRTT(long rtt, long rttVar){
+		super.setRTT(rtt, rttVar);
+		updateMinRTT(rtt, session.getCurrentTime());
+	}
+
+	private void updateMinRTT(long rtt, long now){
+		if(rtt<=0)return;
+		if(mode==Mode.PROBE_RTT){
+			//the min. RTT of the probe replaces the expired value when the probe is done
+			probeMinRTT=probeMinRTT<0?rtt:Math.min(probeMinRTT, rtt);
+			minRTT=Math.min(minRTT, rtt);
+			return;
+		}
+		if(minRTT<0 || rtt<=minRTT){
+			minRTT=rtt;
+			minRTTStamp=now;
+		}
+		else if(now-minRTTStamp>MIN_RTT_WINDOW){
+			enterProbeRTT(now);
+		}
+	}
+
+	public void onPacketSent(long packetSeqNo, int length, long sendTime, long packetsInFlight, boolean appLimited, boolean retransmit){}
+
+	public void onRateSample(RateSample sample){
+		long now=sample.getAckTime();
+		packetsInFlight=sample.getPacketsInFlight();
+		if(sample.getRTT()>0)updateMinRTT(sample.getRTT(), now);
+
+		updateRound(sample);
+		updateBandwidth(sample);
+		checkFullPipe();
+		roundDeliveredPackets+=sample.getNewlyAcked();
+		roundLostPackets+=sample.getNewlyLost();
+		updateMode(now);
+		updateControlParameters(sample.getNewlyAcked());
+
+		if(logger.isLoggable(Level.FINER)){
+			logger.finer("BBR "+mode+" btlBw "+(long)btlBw+" minRTT "+minRTT+" SND "+packetSendingPeriod+" CWND "+congestionWindowSize);
+		}
+		statistics.setSendPeriod(packetSendingPeriod);
+	}
+
+	/**
+	 * the model is updated from the rate samples, see {@link #onRateSample(RateSample)}
+	 */
+	@Override
+	public void onACK(long ackSeqno){
+	}
+
+	/**
+	 * loss does not feed into the path model, lost packets are simply retransmitted
+	 */
+	@Override
+	public void onLoss(List<Integer> lossInfo) {
+		statistics.setSendPeriod(packetSendingPeriod);
+	}
+
+	/**
+	 * a timeout does not change the path model, and there is no slow start to end
+	 * (the unacknowledged packets are retransmitted by the sender)
+	 */
+	@Override
+	public void onTimeout(){
+		statistics.setSendPeriod(packetSendingPeriod);
+	}
+
+	/**
+	 * get the current estimate of the bottleneck bandwidth in packets per second
+	 */
+	public double getBottleneckBandwidth(){
+		return btlBw;
+	}
+
+	/**
+	 * get the current estimate of the minimum round trip time in microseconds
+	 */
+	public long getMinRTT(){
+		return minRTT;
+	}
+
+	//a round ends when a packet sent after the start of the round is acknowledged
+	private void updateRound(RateSample rs){
+		roundStart=false;
+		if(rs.getPriorDelivered()>=nextRoundDelivered){
+			nextRoundDelivered=rs.getDelivered();
+			roundCount++;
+			roundStart=true;
+		}
+	}
+
+	/**
+	 * update the windowed max filter with the delivery rate sample. App-limited
+	 * samples only count if they raise the estimate.
+	 */
+	private void updateBandwidth(RateSample rs){
+		double sample=rs.getDeliveryRate();
+		if(sample<=0 || (minRTT>0 && rs.getInterval()<minRTT))return;
+		if(rs.isAppLimited() && sample<btlBw)return;
+		int slot=(int)(roundCount%BW_FILTER_ROUNDS);
+		if(bwSampleRounds[slot]!=roundCount || sample>bwSamples[slot]){
+			bwSamples[slot]=sample;
+			bwSampleRounds[slot]=roundCount;
+		}
+		double max=0;
+		for(int i=0;i<BW_FILTER_ROUNDS;i++){
+			if(roundCount-bwSampleRounds[i]<BW_FILTER_ROUNDS){
+				max=Math.max(max, bwSamples[i]);
+			}
+		}
+		btlBw=max;
+	}
+
+	private void checkFullPipe(){
+		if(filledPipe || !roundStart || btlBw==0)return;
+		//the buffer overflowed in the last round
+		long lost=roundLostPackets;
+		long total=roundDeliveredPackets+lost;
+		roundDeliveredPackets=0;
+		roundLostPackets=0;
+		if(lost>=STARTUP_LOSS_PACKETS && lost>STARTUP_LOSS_RATE*total){
+			filledPipe=true;
+			return;
+		}
+		if(btlBw>=fullBw*1.25){
+			fullBw=btlBw;
+			fullBwCount=0;
+			return;
+		}
+		fullBwCount++;
+		if(fullBwCount>=3){
+			filledPipe=true;
+		}
+	}
+
+	private void updateMode(long now){
+		if(mode==Mode.STARTUP && filledPipe){
+			mode=Mode.DRAIN;
+			pacingGain=1/HIGH_GAIN;
+			cwndGain=HIGH_GAIN;
+		}
+		if(mode==Mode.DRAIN && packetsInFlight<=getBDP()){
+			enterProbeBW(now);
+		}
+		if(mode==Mode.PROBE_BW && now-cycleStamp>Math.max(minRTT, Util.getSYNTime())){
+			cycleIndex=(cycleIndex+1)%PACING_GAIN_CYCLE.length;
+			cycleStamp=now;
+			pacingGain=PACING_GAIN_CYCLE[cycleIndex];
+		}
+		if(mode==Mode.PROBE_RTT && now>probeRTTDoneStamp){
+			if(probeMinRTT>0)minRTT=probeMinRTT;
+			minRTTStamp=now;
+			congestionWindowSize=Math.max(congestionWindowSize, savedCwnd);
+			if(filledPipe)enterProbeBW(now);
+			else{
+				mode=Mode.STARTUP;
+				pacingGain=HIGH_GAIN;
+				cwndGain=HIGH_GAIN;
+			}
+		}
+	}
+
+	private void enterProbeBW(long now){
+		mode=Mode.PROBE_BW;
+		cwndGain=CWND_GAIN;
+		//start at a random phase, but never in the draining phase
+		cycleIndex=(int)(Math.random()*(PACING_GAIN_CYCLE.length-1));
+		if(cycleIndex>=1)cycleIndex++;
+		pacingGain=PACING_GAIN_CYCLE[cycleIndex];
+		cycleStamp=now;
+	}
+
+	private void enterProbeRTT(long now){
+		mode=Mode.PROBE_RTT;
+		pacingGain=1;
+		savedCwnd=congestionWindowSize;
+		probeMinRTT=-1;
+		probeRTTDoneStamp=now+Math.max(PROBE_RTT_TIME, minRTT);
+	}
+
+	/**
+	 * set the send period from the pacing rate and the window from the BDP
+	 */
+	private void updateControlParameters(long acked){
+		if(btlBw==0){
+			//no model yet, grow the window as in slow start
+			congestionWindowSize+=acked;
+			return;
+		}
+		packetSendingPeriod=1000000.0/(pacingGain*btlBw);
+		if(mode==Mode.PROBE_RTT){
+			congestionWindowSize=MIN_CWND;
+			return;
+		}
+		//allow for the ACK interval (SYN) like the native UDT window does
+		double target=cwndGain*getBDP()+btlBw*Util.getSYNTimeD()/1000000.0;
+		if(!filledPipe)congestionWindowSize=Math.max(congestionWindowSize+acked, target);
+		else congestionWindowSize=target;
+		congestionWindowSize=Math.max(MIN_CWND, Math.min(congestionWindowSize, session.getFlowWindowSize()));
+	}
+
+	//the bandwidth-delay product in packets
+	private double getBDP(){
+		if(minRTT<=0)return congestionWindowSize;
+		return btlBw*minRTT/1000000.0;
+	}
+
+}
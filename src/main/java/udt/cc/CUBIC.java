@@ -0,0 +1,227 @@
+package udt.cc;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.UDTCongestionControl;
+import udt.UDTSession;
+import udt.util.SequenceNumber;
+import udt.util.Util;
+
+/**
+ * CUBIC congestion control (RFC 8312), window based and TCP-friendly.<br/>
+ *
+ * The window grows as a cubic function of the time since the last
+ * congestion event, so it shares a bottleneck fairly with TCP flows
+ * but still scales on paths with a large bandwidth-delay product.
+ * Slow start is left early when the RTT starts to grow (HyStart delay
+ * increase detection), and packets are paced at RTT/CWND.<br/>
+ *
+ * To use it, set the system property <code>udt.congestioncontrol.class=udt.cc.CUBIC</code>
+ */
+public class CUBIC extends UDTCongestionControl {
+
+	private static final Logger logger=Logger.getLogger(CUBIC.class.getName());
+
+	//scaling constant of the cubic function
+	static final double C=0.4;
+
+	//multiplicative decrease factor
+	static final double BETA=0.7;
+
+	static final double MIN_CWND=2;
+
+	//HyStart: number of RTT samples per round (full ACKs carry one each) and delay thresholds (microseconds)
+	static final int HYSTART_MIN_SAMPLES=2;
+	static final long HYSTART_DELAY_MIN=4000;
+	static final long HYSTART_DELAY_MAX=16000;
+
+	//pacing rate relative to CWND/RTT
+	static final double SLOW_START_PACING_GAIN=2.0;
+	static final double PACING_GAIN=1.2;
+
+	//slow start threshold in packets
+	private double ssthresh=Double.MAX_VALUE;
+
+	//window size before the last reduction
+	private double wMax=0;
+
+	//start of the current congestion avoidance epoch (microseconds), 0 if none
+	private long epochStart=0;
+
+	//time period (seconds) to reach wMax again
+	private double k=0;
+
+	//window a standard TCP would have in this epoch
+	private double wTCP=0;
+
+	private long lastAckSeqNo=-1;
+
+	//max seq. no. sent out when the last decrease happened
+	private long lastDecreaseSeqNo=-1;
+
+	//HyStart state
+	private long roundEndSeqNo=-1;
+	private long roundMinRTT=Long.MAX_VALUE;
+	private long lastRoundMinRTT=Long.MAX_VALUE;
+	private int roundSamples=0;
+
+	public CUBIC(UDTSession session){
+		super(session);
+	}
+
+	@Override
+	public void init() {
+		congestionWindowSize=16;
+		packetSendingPeriod=1;
+	}
+
+	@Override
+	public void setRTT(long rtt, long rttVar){
+		super.setRTT(rtt, rttVar);
+		if(rtt>0 && isSlowStart()){
+			roundMinRTT=Math.min(roundMinRTT, rtt);
+			roundSamples++;
+		}
+	}
+
+	@Override
+	public void onACK(long ackSeqno){
+		if(lastAckSeqNo<0)lastAckSeqNo=ackSeqno;
+		long acked=SequenceNumber.seqOffset(lastAckSeqNo, ackSeqno);
+		if(acked<=0)return;
+		lastAckSeqNo=ackSeqno;
+
+		if(isSlowStart()){
+			congestionWindowSize+=acked;
+			hyStart(ackSeqno);
+		}
+		else{
+			congestionAvoidance(acked);
+		}
+		congestionWindowSize=Math.min(congestionWindowSize, session.getFlowWindowSize());
+		updatePacketSendingPeriod();
+
+		if(logger.isLoggable(Level.FINER)){
+			logger.finer("CUBIC CWND "+congestionWindowSize+" ssthresh "+ssthresh+" wMax "+wMax+" SND "+packetSendingPeriod);
+		}
+	}
+
+	@Override
+	public void onLoss(List<Integer> lossInfo) {
+		long firstLost=lossInfo.get(0);
+		//only one reduction per window of data
+		if(lastDecreaseSeqNo>=0 && SequenceNumber.compare(firstLost, lastDecreaseSeqNo)<=0){
+			return;
+		}
+		lastDecreaseSeqNo=session.getSender().getLargestSentSequenceNumber();
+		reduce();
+		statistics.incNumberOfCCSlowDownEvents();
+	}
+
+	/**
+	 * as in RFC 8312 section 4.7: reduce ssthresh like on loss, then restart from a
+	 * minimal window in slow start. Repeated timeouts before new data is sent (one outage)
+	 * restart the window, but do not reduce ssthresh and wMax again.
+	 */
+	@Override
+	public void onTimeout() {
+		long largestSent=session.getSender().getLargestSentSequenceNumber();
+		if(lastDecreaseSeqNo<0 || SequenceNumber.compare(largestSent, lastDecreaseSeqNo)>0){
+			lastDecreaseSeqNo=largestSent;
+			reduce();
+			statistics.incNumberOfCCSlowDownEvents();
+		}
+		congestionWindowSize=MIN_CWND;
+		updatePacketSendingPeriod();
+	}
+
+	/**
+	 * multiplicative decrease with fast convergence
+	 */
+	private void reduce(){
+		epochStart=0;
+		if(congestionWindowSize<wMax){
+			//release bandwidth for newly arriving flows
+			wMax=congestionWindowSize*(1+BETA)/2;
+		}
+		else{
+			wMax=congestionWindowSize;
+		}
+		congestionWindowSize=Math.max(MIN_CWND, congestionWindowSize*BETA);
+		ssthresh=congestionWindowSize;
+		updatePacketSendingPeriod();
+	}
+
+	private void congestionAvoidance(long acked){
+		long now=session.getCurrentTime();
+		if(epochStart==0){
+			epochStart=now;
+			if(congestionWindowSize<wMax){
+				k=Math.cbrt((wMax-congestionWindowSize)/C);
+			}
+			else{
+				k=0;
+				wMax=congestionWindowSize;
+			}
+			wTCP=congestionWindowSize;
+		}
+		double rtt=roundTripTime>0?roundTripTime:Util.getSYNTime();
+		double t=(now-epochStart+rtt)/1000000.0;
+		double target=wMax+C*Math.pow(t-k, 3);
+
+		double cwnd=congestionWindowSize;
+		if(target>cwnd){
+			cwnd+=(target-cwnd)/cwnd*acked;
+		}
+		else{
+			//very slow growth close to the plateau
+			cwnd+=0.01*acked/cwnd;
+		}
+
+		//TCP-friendly region
+		wTCP+=3*(1-BETA)/(1+BETA)*acked/congestionWindowSize;
+		congestionWindowSize=Math.max(cwnd, wTCP);
+	}
+
+	/**
+	 * leave slow start when the RTT of this round increased noticeably
+	 * over the previous one
+	 */
+	private void hyStart(long ackSeqno){
+		if(roundEndSeqNo>=0 && SequenceNumber.compare(ackSeqno, roundEndSeqNo)<=0){
+			return;
+		}
+		//end of round
+		if(roundSamples>=HYSTART_MIN_SAMPLES && lastRoundMinRTT!=Long.MAX_VALUE){
+			long threshold=Math.max(HYSTART_DELAY_MIN, Math.min(HYSTART_DELAY_MAX, lastRoundMinRTT/8));
+			if(roundMinRTT>=lastRoundMinRTT+threshold){
+				ssthresh=congestionWindowSize;
+			}
+		}
+		if(roundSamples>0)lastRoundMinRTT=roundMinRTT;
+		roundMinRTT=Long.MAX_VALUE;
+		roundSamples=0;
+		roundEndSeqNo=session.getSender().getLargestSentSequenceNumber();
+	}
+
+	private boolean isSlowStart(){
+		return congestionWindowSize<ssthresh;
+	}
+
+	/**
+	 * pace the window evenly across one RTT
+	 */
+	private void updatePacketSendingPeriod(){
+		if(roundTripTime<=0)return;
+		double gain=isSlowStart()?SLOW_START_PACING_GAIN:PACING_GAIN;
+		packetSendingPeriod=roundTripTime/(congestionWindowSize*gain);
+		statistics.setSendPeriod(packetSendingPeriod);
+	}
+
+	public double getSlowStartThreshold(){
+		return ssthresh;
+	}
+
+}
@@ -0,0 +1,184 @@
+package udt.cc;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.UDTCongestionControl;
+import udt.UDTSession;
+import udt.util.SequenceNumber;
+
+/**
+ * delay based "scavenger" congestion control in the style of LEDBAT (RFC 6817)<br/>
+ *
+ * The sender tracks the one-way delay reported by the receiver (computed from the
+ * data packet time stamps) and adjusts the window so that the queuing delay above
+ * the base (minimum) delay stays close to a fixed target. As soon as other traffic
+ * builds a queue, the window shrinks, so a bulk transfer uses spare capacity only,
+ * without inflating the latency for everyone else.<br/>
+ *
+ * The target delay in milliseconds can be set with the system property
+ * <code>udt.ledbat.target</code> (default 100).<br/>
+ *
+ * To use it, set the system property <code>udt.congestioncontrol.class=udt.cc.LEDBAT</code>
+ */
+public class LEDBAT extends UDTCongestionControl {
+
+	private static final Logger logger=Logger.getLogger(LEDBAT.class.getName());
+
+	//target queuing delay in microseconds
+	static final long TARGET=Integer.getInteger("udt.ledbat.target", 100)*1000L;
+
+	static final double GAIN=1;
+
+	//number of packets the window may exceed the packets in flight
+	static final double ALLOWED_INCREASE=1;
+
+	static final double MIN_CWND=2;
+
+	//base delay history: minimum per minute, for the last 10 minutes
+	static final int BASE_HISTORY=10;
+	static final long BASE_INTERVAL=60*1000*1000;
+
+	//number of delay samples used for the current delay
+	static final int CURRENT_FILTER=4;
+
+	//pacing rate relative to CWND/RTT
+	static final double PACING_GAIN=1.2;
+
+	private final long[] baseDelays=new long[BASE_HISTORY];
+	private int baseIndex=0;
+	private long baseStamp=0;
+
+	private final long[] currentDelays=new long[CURRENT_FILTER];
+	private int currentIndex=0;
+	private int numberOfSamples=0;
+
+	//slow start until the queuing delay reaches half the target, or the first loss
+	private boolean slowStart=true;
+
+	private long lastAckSeqNo=-1;
+
+	//max seq. no. sent out when the last decrease happened
+	private long lastDecreaseSeqNo=-1;
+
+	public LEDBAT(UDTSession session){
+		super(session);
+	}
+
+	@Override
+	public void init() {
+		congestionWindowSize=MIN_CWND;
+		packetSendingPeriod=1;
+		for(int i=0;i<BASE_HISTORY;i++)baseDelays[i]=Long.MAX_VALUE;
+		baseStamp=session.getCurrentTime();
+	}
+
+	@Override
+	public void updateOneWayDelay(long delay){
+		long now=session.getCurrentTime();
+		if(now-baseStamp>BASE_INTERVAL){
+			baseIndex=(baseIndex+1)%BASE_HISTORY;
+			baseDelays[baseIndex]=delay;
+			baseStamp=now;
+		}
+		else{
+			baseDelays[baseIndex]=Math.min(baseDelays[baseIndex], delay);
+		}
+		currentDelays[currentIndex]=delay;
+		currentIndex=(currentIndex+1)%CURRENT_FILTER;
+		if(numberOfSamples<CURRENT_FILTER)numberOfSamples++;
+	}
+
+	@Override
+	public void onACK(long ackSeqno){
+		if(lastAckSeqNo<0)lastAckSeqNo=ackSeqno;
+		long acked=SequenceNumber.seqOffset(lastAckSeqNo, ackSeqno);
+		if(acked<=0)return;
+		lastAckSeqNo=ackSeqno;
+
+		long queuingDelay=getQueuingDelay();
+		if(slowStart && queuingDelay>TARGET/2)slowStart=false;
+
+		if(slowStart){
+			congestionWindowSize+=acked;
+		}
+		else{
+			double offTarget=(double)(TARGET-queuingDelay)/TARGET;
+			congestionWindowSize+=GAIN*offTarget*acked/congestionWindowSize;
+		}
+		double maxAllowed=getPacketsInFlight()+acked+ALLOWED_INCREASE;
+		congestionWindowSize=Math.min(congestionWindowSize, maxAllowed);
+		congestionWindowSize=Math.max(MIN_CWND, Math.min(congestionWindowSize, session.getFlowWindowSize()));
+		updatePacketSendingPeriod();
+
+		if(logger.isLoggable(Level.FINER)){
+			logger.finer("LEDBAT CWND "+congestionWindowSize+" queuing delay "+queuingDelay+" SND "+packetSendingPeriod);
+		}
+	}
+
+	@Override
+	public void onLoss(List<Integer> lossInfo) {
+		long firstLost=lossInfo.get(0);
+		//only one reduction per window of data
+		if(lastDecreaseSeqNo>=0 && SequenceNumber.compare(firstLost, lastDecreaseSeqNo)<=0){
+			return;
+		}
+		lastDecreaseSeqNo=session.getSender().getLargestSentSequenceNumber();
+		slowStart=false;
+		congestionWindowSize=Math.max(MIN_CWND, congestionWindowSize/2);
+		updatePacketSendingPeriod();
+		statistics.incNumberOfCCSlowDownEvents();
+	}
+
+	@Override
+	public void onTimeout() {
+		slowStart=false;
+		congestionWindowSize=MIN_CWND;
+		updatePacketSendingPeriod();
+	}
+
+	/**
+	 * get the current queuing delay estimate in microseconds
+	 */
+	public long getQueuingDelay(){
+		if(numberOfSamples==0)return 0;
+		long current=Long.MAX_VALUE;
+		for(int i=0;i<numberOfSamples;i++){
+			current=Math.min(current, currentDelays[i]);
+		}
+		return Math.max(0, current-getBaseDelay());
+	}
+
+	/**
+	 * get the base delay, i.e. the minimum one-way delay of the last minutes
+	 * (relative to the receiver's base)
+	 */
+	public long getBaseDelay(){
+		long base=Long.MAX_VALUE;
+		for(long d: baseDelays){
+			base=Math.min(base, d);
+		}
+		return base==Long.MAX_VALUE?0:base;
+	}
+
+	/**
+	 * pace the window evenly across one RTT
+	 */
+	private void updatePacketSendingPeriod(){
+		if(roundTripTime<=0)return;
+		packetSendingPeriod=roundTripTime/(congestionWindowSize*PACING_GAIN);
+		statistics.setSendPeriod(packetSendingPeriod);
+	}
+
+	/**
+	 * packets sent out but not yet acknowledged (the sender's current sequence
+	 * number also counts packets that are only queued for sending)
+	 */
+	private long getPacketsInFlight(){
+		long largestSent=session.getSender().getLargestSentSequenceNumber();
+		if(largestSent<0)return 0;
+		return Math.max(0, SequenceNumber.seqOffset(lastAckSeqNo, largestSent)+1);
+	}
+
+}
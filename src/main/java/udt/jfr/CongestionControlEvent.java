@@ -0,0 +1,27 @@
+package udt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("udt.CongestionControl")
+@Label("Congestion Control")
+@Category("UDT")
+@Description("The congestion window or the send period changed")
+class CongestionControlEvent extends Event {
+
+	@Label("Socket ID")
+	long socketID;
+
+	@Label("Cause")
+	String cause;
+
+	@Label("Send Period")
+	@Description("Packet send period in microseconds")
+	double sendPeriod;
+
+	@Label("Congestion Window")
+	double congestionWindowSize;
+}
@@ -0,0 +1,97 @@
+package udt.jfr;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * creates and commits the events. Only loaded through {@link JFRSupport}, and only if
+ * JFR is available, so the rest of the code does not depend on the jdk.jfr classes.
+ */
+class Events {
+
+	private static final EventType sessionState=EventType.getEventType(SessionStateEvent.class);
+	private static final EventType handshake=EventType.getEventType(HandshakeEvent.class);
+	private static final EventType nak=EventType.getEventType(NAKEvent.class);
+	private static final EventType retransmit=EventType.getEventType(RetransmitEvent.class);
+	private static final EventType timeout=EventType.getEventType(TimeoutEvent.class);
+	private static final EventType congestionControl=EventType.getEventType(CongestionControlEvent.class);
+	private static final EventType sendTask=EventType.getEventType(SendTaskEvent.class);
+
+	static boolean isAvailable(){
+		return FlightRecorder.isAvailable();
+	}
+
+	static void sessionState(long socketID, String peer, int oldState, int newState){
+		if(!sessionState.isEnabled())return;
+		SessionStateEvent e=new SessionStateEvent();
+		e.socketID=socketID;
+		e.peer=peer;
+		e.oldState=oldState;
+		e.newState=newState;
+		e.commit();
+	}
+
+	static void handshake(long socketID, String peer, long duration){
+		if(!handshake.isEnabled())return;
+		HandshakeEvent e=new HandshakeEvent();
+		e.socketID=socketID;
+		e.peer=peer;
+		e.handshakeDuration=duration;
+		e.commit();
+	}
+
+	static void nak(long socketID, int lostPackets, long firstSequenceNumber){
+		if(!nak.isEnabled())return;
+		NAKEvent e=new NAKEvent();
+		e.socketID=socketID;
+		e.lostPackets=lostPackets;
+		e.firstSequenceNumber=firstSequenceNumber;
+		e.commit();
+	}
+
+	static void retransmit(long socketID, int packets){
+		if(!retransmit.isEnabled())return;
+		RetransmitEvent e=new RetransmitEvent();
+		e.socketID=socketID;
+		e.packets=packets;
+		e.commit();
+	}
+
+	static void timeout(long socketID, long expCount, int unacknowledged){
+		if(!timeout.isEnabled())return;
+		TimeoutEvent e=new TimeoutEvent();
+		e.socketID=socketID;
+		e.expCount=expCount;
+		e.unacknowledged=unacknowledged;
+		e.commit();
+	}
+
+	static boolean isCongestionControlEnabled(){
+		return congestionControl.isEnabled();
+	}
+
+	static void congestionControl(long socketID, String cause, double sendPeriod, double congestionWindowSize){
+		if(!congestionControl.isEnabled())return;
+		CongestionControlEvent e=new CongestionControlEvent();
+		e.socketID=socketID;
+		e.cause=cause;
+		e.sendPeriod=sendPeriod;
+		e.congestionWindowSize=congestionWindowSize;
+		e.commit();
+	}
+
+	static boolean isSendTaskEnabled(){
+		return sendTask.isEnabled();
+	}
+
+	static void sendTask(long socketID, long lateness, int packets, long nextDelay){
+		if(!sendTask.isEnabled())return;
+		SendTaskEvent e=new SendTaskEvent();
+		e.socketID=socketID;
+		e.lateness=lateness;
+		e.packets=packets;
+		e.nextDelay=nextDelay;
+		e.commit();
+	}
+
+}
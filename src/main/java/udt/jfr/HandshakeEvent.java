@@ -0,0 +1,25 @@
+package udt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("udt.Handshake")
+@Label("Handshake")
+@Category("UDT")
+@Description("Connection handshake completed")
+class HandshakeEvent extends Event {
+
+	@Label("Socket ID")
+	long socketID;
+
+	@Label("Peer")
+	String peer;
+
+	@Label("Handshake Duration")
+	@Timespan(Timespan.MICROSECONDS)
+	long handshakeDuration;
+}
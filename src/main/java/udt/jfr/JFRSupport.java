@@ -0,0 +1,91 @@
+package udt.jfr;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * emits Java Flight Recorder events for the protocol internals: session state changes,
+ * handshake duration, NAKs, retransmit bursts, EXP timeouts, congestion control changes
+ * and send task scheduling (the latter is disabled in the default recording settings).<br/>
+ *
+ * If the JVM has no JFR support (e.g. JDK 8 before update 262), or the system property
+ * <code>udt.jfr.disabled=true</code> is set, all methods return immediately. Otherwise they
+ * check whether the event type is enabled in a running recording before creating an event.
+ */
+public class JFRSupport {
+
+	private static final Logger logger=Logger.getLogger(JFRSupport.class.getName());
+
+	public static final String DISABLED="udt.jfr.disabled";
+
+	private static final boolean available=!Boolean.getBoolean(DISABLED) && checkAvailable();
+
+	private JFRSupport(){}
+
+	private static boolean checkAvailable(){
+		try{
+			Class.forName("jdk.jfr.Event");
+			return Events.isAvailable();
+		}catch(Throwable t){
+			logger.log(Level.FINE, "JFR not available", t);
+			return false;
+		}
+	}
+
+	/**
+	 * true if JFR is available, i.e. events will be emitted when a recording is running
+	 */
+	public static boolean isAvailable(){
+		return available;
+	}
+
+	public static void sessionState(long socketID, String peer, int oldState, int newState){
+		if(available)Events.sessionState(socketID, peer, oldState, newState);
+	}
+
+	/**
+	 * @param duration - handshake duration in microseconds
+	 */
+	public static void handshake(long socketID, String peer, long duration){
+		if(available)Events.handshake(socketID, peer, duration);
+	}
+
+	public static void nak(long socketID, int lostPackets, long firstSequenceNumber){
+		if(available)Events.nak(socketID, lostPackets, firstSequenceNumber);
+	}
+
+	public static void retransmit(long socketID, int packets){
+		if(available)Events.retransmit(socketID, packets);
+	}
+
+	public static void timeout(long socketID, long expCount, int unacknowledged){
+		if(available)Events.timeout(socketID, expCount, unacknowledged);
+	}
+
+	public static boolean isCongestionControlEnabled(){
+		return available && Events.isCongestionControlEnabled();
+	}
+
+	/**
+	 * @param cause - what triggered the change, e.g. "ACK", "NAK" or "EXP"
+	 * @param sendPeriod - packet send period in microseconds
+	 * @param congestionWindowSize - congestion window in packets
+	 */
+	public static void congestionControl(long socketID, String cause, double sendPeriod, double congestionWindowSize){
+		if(available)Events.congestionControl(socketID, cause, sendPeriod, congestionWindowSize);
+	}
+
+	public static boolean isSendTaskEnabled(){
+		return available && Events.isSendTaskEnabled();
+	}
+
+	/**
+	 * @param lateness - microseconds between the scheduled and the actual start of the task
+	 * @param packets - packets sent (including retransmissions)
+	 * @param nextDelay - delay until the next run in milliseconds
+	 */
+	public static void sendTask(long socketID, long lateness, int packets, long nextDelay){
+		if(available)Events.sendTask(socketID, lateness, packets, nextDelay);
+	}
+
+}
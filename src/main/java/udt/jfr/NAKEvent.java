@@ -0,0 +1,23 @@
+package udt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("udt.NAK")
+@Label("NAK Received")
+@Category("UDT")
+@Description("The sender received a loss report")
+class NAKEvent extends Event {
+
+	@Label("Socket ID")
+	long socketID;
+
+	@Label("Lost Packets")
+	int lostPackets;
+
+	@Label("First Lost Sequence Number")
+	long firstSequenceNumber;
+}
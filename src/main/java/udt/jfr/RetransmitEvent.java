@@ -0,0 +1,20 @@
+package udt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("udt.Retransmit")
+@Label("Retransmit Burst")
+@Category("UDT")
+@Description("Packets re-sent in one run of the send task")
+class RetransmitEvent extends Event {
+
+	@Label("Socket ID")
+	long socketID;
+
+	@Label("Retransmitted Packets")
+	int packets;
+}
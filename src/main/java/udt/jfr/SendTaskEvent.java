@@ -0,0 +1,32 @@
+package udt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("udt.SendTask")
+@Label("Send Task")
+@Category("UDT")
+@Description("A run of the sender task. Disabled by default, as it is emitted very often")
+@Enabled(false)
+class SendTaskEvent extends Event {
+
+	@Label("Socket ID")
+	long socketID;
+
+	@Label("Lateness")
+	@Description("Time between the scheduled and the actual start of the task")
+	@Timespan(Timespan.MICROSECONDS)
+	long lateness;
+
+	@Label("Packets Sent")
+	int packets;
+
+	@Label("Next Delay")
+	@Timespan(Timespan.MILLISECONDS)
+	long nextDelay;
+}
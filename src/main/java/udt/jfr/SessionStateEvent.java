@@ -0,0 +1,26 @@
+package udt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("udt.SessionState")
+@Label("Session State")
+@Category("UDT")
+@Description("A UDT session changed its state")
+class SessionStateEvent extends Event {
+
+	@Label("Socket ID")
+	long socketID;
+
+	@Label("Peer")
+	String peer;
+
+	@Label("Old State")
+	int oldState;
+
+	@Label("New State")
+	int newState;
+}
@@ -0,0 +1,23 @@
+package udt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("udt.Timeout")
+@Label("EXP Timeout")
+@Category("UDT")
+@Description("The EXP timer expired with unacknowledged packets")
+class TimeoutEvent extends Event {
+
+	@Label("Socket ID")
+	long socketID;
+
+	@Label("EXP Count")
+	long expCount;
+
+	@Label("Unacknowledged Packets")
+	int unacknowledged;
+}
@@ -0,0 +1,134 @@
+package udt.jmx;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import udt.UDPEndPoint;
+import udt.UDTSession;
+
+/**
+ * exposes the state of an endpoint and the totals over its sessions
+ */
+public class EndPointMonitor implements EndPointMonitorMBean {
+
+	private final UDPEndPoint endPoint;
+
+	private final int id;
+
+	public EndPointMonitor(UDPEndPoint endPoint, int id){
+		this.endPoint=endPoint;
+		this.id=id;
+	}
+
+	public int getID() {
+		return id;
+	}
+
+	public int getLocalPort() {
+		return endPoint.getLocalPort();
+	}
+
+	public String getLocalAddress() {
+		InetAddress address=endPoint.getLocalAddress();
+		return address!=null?address.getHostAddress():null;
+	}
+
+	public String getConnectedPeer() {
+		InetSocketAddress peer=endPoint.getConnectedPeer();
+		return peer!=null?peer.getAddress().getHostAddress()+":"+peer.getPort():null;
+	}
+
+	public boolean isStopped() {
+		return endPoint.isStopped();
+	}
+
+	public int getNumberOfSessions() {
+		return endPoint.getSessions().size();
+	}
+
+	public long[] getSessionIDs() {
+		List<Long>ids=new ArrayList<Long>();
+		for(UDTSession session: endPoint.getSessions()){
+			ids.add(session.getSocketID());
+		}
+		long[] result=new long[ids.size()];
+		for(int i=0;i<result.length;i++)result[i]=ids.get(i);
+		return result;
+	}
+
+	public long getDatagramsReceived() {
+		return endPoint.getDatagramsReceived();
+	}
+
+	public long getReceiveBatches() {
+		return endPoint.getReceiveBatches();
+	}
+
+	public double getAverageReceiveBatchSize() {
+		long batches=endPoint.getReceiveBatches();
+		return batches>0?(double)endPoint.getDatagramsReceived()/batches:0;
+	}
+
+	public long getWriteWaits() {
+		return endPoint.getWriteWaits();
+	}
+
+	public long getSentDataPackets() {
+		long sum=0;
+		for(UDTSession session: endPoint.getSessions()){
+			sum+=session.getStatistics().getNumberOfSentDataPackets();
+		}
+		return sum;
+	}
+
+	public long getRetransmittedDataPackets() {
+		long sum=0;
+		for(UDTSession session: endPoint.getSessions()){
+			sum+=session.getStatistics().getNumberOfRetransmittedDataPackets();
+		}
+		return sum;
+	}
+
+	public long getReceivedDataPackets() {
+		long sum=0;
+		for(UDTSession session: endPoint.getSessions()){
+			sum+=session.getStatistics().getNumberOfReceivedDataPackets();
+		}
+		return sum;
+	}
+
+	public long getSentDataBytes() {
+		long sum=0;
+		for(UDTSession session: endPoint.getSessions()){
+			sum+=session.getStatistics().getNumberOfSentDataBytes();
+		}
+		return sum;
+	}
+
+	public long getReceivedDataBytes() {
+		long sum=0;
+		for(UDTSession session: endPoint.getSessions()){
+			sum+=session.getStatistics().getNumberOfReceivedDataBytes();
+		}
+		return sum;
+	}
+
+	public long getControlPacketsSent() {
+		long sum=0;
+		for(UDTSession session: endPoint.getSessions()){
+			sum+=session.getStatistics().getNumberOfControlPacketsSent();
+		}
+		return sum;
+	}
+
+	public long getControlPacketsReceived() {
+		long sum=0;
+		for(UDTSession session: endPoint.getSessions()){
+			sum+=session.getStatistics().getNumberOfControlPacketsReceived();
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,64 @@
+package udt.jmx;
+
+/**
+ * management interface of a {@link udt.UDPEndPoint}
+ */
+public interface EndPointMonitorMBean {
+
+	public int getID();
+
+	public int getLocalPort();
+
+	public String getLocalAddress();
+
+	/**
+	 * the peer the channel of a client endpoint is connected to, or null
+	 */
+	public String getConnectedPeer();
+
+	public boolean isStopped();
+
+	public int getNumberOfSessions();
+
+	/**
+	 * socket IDs of the active sessions
+	 */
+	public long[] getSessionIDs();
+
+	/**
+	 * datagrams read from the channel
+	 */
+	public long getDatagramsReceived();
+
+	/**
+	 * wakeups of the receive loop that read at least one datagram
+	 */
+	public long getReceiveBatches();
+
+	/**
+	 * average number of datagrams read per wakeup
+	 */
+	public double getAverageReceiveBatchSize();
+
+	/**
+	 * how often the endpoint waited for the socket send buffer to drain (OP_WRITE)
+	 */
+	public long getWriteWaits();
+
+	/* sums over the active sessions */
+
+	public long getSentDataPackets();
+
+	public long getRetransmittedDataPackets();
+
+	public long getReceivedDataPackets();
+
+	public long getSentDataBytes();
+
+	public long getReceivedDataBytes();
+
+	public long getControlPacketsSent();
+
+	public long getControlPacketsReceived();
+
+}
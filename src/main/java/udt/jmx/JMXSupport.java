@@ -0,0 +1,95 @@
+package udt.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import udt.UDPEndPoint;
+import udt.UDTSession;
+
+/**
+ * registers the endpoint and session MBeans with the platform MBean server.<br/>
+ *
+ * The MBeans are named <code>udt:type=EndPoint,id=&lt;n&gt;</code> and
+ * <code>udt:type=Session,endpoint=&lt;n&gt;,id=&lt;socket ID&gt;</code>.
+ * Registration can be switched off with the system property <code>udt.jmx.disabled=true</code>.
+ * Errors are logged, but never passed to the caller.
+ */
+public class JMXSupport {
+
+	private static final Logger logger=Logger.getLogger(JMXSupport.class.getName());
+
+	public static final String DISABLED="udt.jmx.disabled";
+
+	public static final String DOMAIN="udt";
+
+	private static final boolean enabled=!Boolean.getBoolean(DISABLED);
+
+	private static final AtomicInteger nextEndPointID=new AtomicInteger(0);
+
+	private JMXSupport(){}
+
+	public static boolean isEnabled(){
+		return enabled;
+	}
+
+	/**
+	 * a unique number for naming an endpoint
+	 */
+	public static int nextEndPointID(){
+		return nextEndPointID.incrementAndGet();
+	}
+
+	public static void registerEndPoint(UDPEndPoint endPoint, int id){
+		if(!enabled)return;
+		register(new EndPointMonitor(endPoint, id), "type=EndPoint,id="+id);
+	}
+
+	public static void unregisterEndPoint(int id){
+		if(!enabled)return;
+		unregister("type=EndPoint,id="+id);
+	}
+
+	public static void registerSession(UDTSession session, int endPointID){
+		if(!enabled)return;
+		register(new SessionMonitor(session), sessionName(session, endPointID));
+	}
+
+	public static void unregisterSession(UDTSession session, int endPointID){
+		if(!enabled)return;
+		unregister(sessionName(session, endPointID));
+	}
+
+	private static String sessionName(UDTSession session, int endPointID){
+		return "type=Session,endpoint="+endPointID+",id="+session.getSocketID();
+	}
+
+	private static void register(Object mbean, String name){
+		try{
+			MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName=new ObjectName(DOMAIN+":"+name);
+			if(!server.isRegistered(objectName)){
+				server.registerMBean(mbean, objectName);
+			}
+		}catch(Exception ex){
+			logger.log(Level.WARNING, "Can't register MBean <"+name+">", ex);
+		}
+	}
+
+	private static void unregister(String name){
+		try{
+			MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName=new ObjectName(DOMAIN+":"+name);
+			if(server.isRegistered(objectName)){
+				server.unregisterMBean(objectName);
+			}
+		}catch(Exception ex){
+			logger.log(Level.FINE, "Can't unregister MBean <"+name+">", ex);
+		}
+	}
+
+}
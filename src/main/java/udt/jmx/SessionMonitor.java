@@ -0,0 +1,200 @@
+package udt.jmx;
+
+import java.io.File;
+import java.io.IOException;
+
+import udt.UDTSession;
+import udt.util.EventTrace;
+import udt.util.Histogram;
+import udt.util.UDTStatistics;
+
+/**
+ * exposes the statistics, congestion control state and buffer fill of a session.
+ * All attributes are read on demand from the live session, without locking the data path.
+ */
+public class SessionMonitor implements SessionMonitorMBean {
+
+	private final UDTSession session;
+
+	private final UDTStatistics statistics;
+
+	public SessionMonitor(UDTSession session){
+		this.session=session;
+		this.statistics=session.getStatistics();
+	}
+
+	public long getSocketID() {
+		return session.getSocketID();
+	}
+
+	public String getDescription() {
+		return session.toString();
+	}
+
+	public String getPeer() {
+		return String.valueOf(session.getTargetAddress());
+	}
+
+	public int getState() {
+		return session.getState();
+	}
+
+	public String getCongestionControlClass() {
+		return session.getCongestionControl().getClass().getName();
+	}
+
+	public long getSentDataPackets() {
+		return statistics.getNumberOfSentDataPackets();
+	}
+
+	public long getRetransmittedDataPackets() {
+		return statistics.getNumberOfRetransmittedDataPackets();
+	}
+
+	public long getReceivedDataPackets() {
+		return statistics.getNumberOfReceivedDataPackets();
+	}
+
+	public long getDuplicateDataPackets() {
+		return statistics.getNumberOfDuplicateDataPackets();
+	}
+
+	public long getSentDataBytes() {
+		return statistics.getNumberOfSentDataBytes();
+	}
+
+	public long getReceivedDataBytes() {
+		return statistics.getNumberOfReceivedDataBytes();
+	}
+
+	public long getACKSent() {
+		return statistics.getNumberOfACKSent();
+	}
+
+	public long getACKReceived() {
+		return statistics.getNumberOfACKReceived();
+	}
+
+	public long getLightACKSent() {
+		return statistics.getNumberOfLightACKSent();
+	}
+
+	public long getLightACKReceived() {
+		return statistics.getNumberOfLightACKReceived();
+	}
+
+	public long getACK2Sent() {
+		return statistics.getNumberOfACK2Sent();
+	}
+
+	public long getACK2Received() {
+		return statistics.getNumberOfACK2Received();
+	}
+
+	public long getNAKSent() {
+		return statistics.getNumberOfNAKSent();
+	}
+
+	public long getNAKReceived() {
+		return statistics.getNumberOfNAKReceived();
+	}
+
+	public long getControlPacketsSent() {
+		return statistics.getNumberOfControlPacketsSent();
+	}
+
+	public long getControlPacketsReceived() {
+		return statistics.getNumberOfControlPacketsReceived();
+	}
+
+	public double getControlToDataRatio() {
+		return statistics.getControlToDataRatio();
+	}
+
+	public long getSocketBufferFullEvents() {
+		return statistics.getNumberOfSocketBufferFullEvents();
+	}
+
+	public double getRetransmitPercentage() {
+		long sent=statistics.getNumberOfSentDataPackets();
+		long retransmitted=statistics.getNumberOfRetransmittedDataPackets();
+		return sent+retransmitted>0?100.0*retransmitted/(sent+retransmitted):0;
+	}
+
+	public double getSendPeriod() {
+		return session.getCongestionControl().getSendInterval();
+	}
+
+	public double getCongestionWindowSize() {
+		return session.getCongestionControl().getCongestionWindowSize();
+	}
+
+	public long getRoundTripTime() {
+		return statistics.getRoundTripTime();
+	}
+
+	public long getRoundTripTimeVariance() {
+		return statistics.getRoundTripTimeVariance();
+	}
+
+	public long getPacketArrivalRate() {
+		return session.getCongestionControl().getPacketArrivalRate();
+	}
+
+	public long getEstimatedLinkCapacity() {
+		return session.getCongestionControl().getEstimatedLinkCapacity();
+	}
+
+	public int getFlowWindowSize() {
+		return session.flowWindow.getSize();
+	}
+
+	public int getFlowWindowOccupancy() {
+		return session.flowWindow.getValidEntries();
+	}
+
+	public int getUnacknowledgedPackets() {
+		return session.getSender().getUnacknowledged();
+	}
+
+	public int getSenderLossListSize() {
+		return session.getSender().getLossListSize();
+	}
+
+	public int getReceiverLossListSize() {
+		return session.getReceiver().getLossListSize();
+	}
+
+	public int getReceiveBufferSize() {
+		return session.receiveBuffer.getSize();
+	}
+
+	public int getReceiveBufferFill() {
+		return session.receiveBuffer.getNumValidChunks();
+	}
+
+	public String dumpStatistics() {
+		return statistics.toString();
+	}
+
+	public String dumpLatencyHistograms() {
+		return statistics.getHistogramSummary();
+	}
+
+	public void resetLatencyHistograms() {
+		for(Histogram h: statistics.getHistograms()){
+			h.reset();
+		}
+	}
+
+	public boolean isEventTraceEnabled() {
+		return session.getEventTrace().isEnabled();
+	}
+
+	public int dumpEventTrace(String fileName) throws IOException {
+		EventTrace trace=session.getEventTrace();
+		trace.dump(new File(fileName));
+		return (int)Math.min(trace.getNumberOfEvents(), trace.getCapacity());
+	}
+
+}
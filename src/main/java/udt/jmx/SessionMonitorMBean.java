@@ -0,0 +1,137 @@
+package udt.jmx;
+
+import java.io.IOException;
+
+/**
+ * management interface of a {@link udt.UDTSession}
+ */
+public interface SessionMonitorMBean {
+
+	public long getSocketID();
+
+	public String getDescription();
+
+	public String getPeer();
+
+	/**
+	 * session state, see the constants in {@link udt.UDTSession}
+	 */
+	public int getState();
+
+	public String getCongestionControlClass();
+
+	/* counters */
+
+	public long getSentDataPackets();
+
+	public long getRetransmittedDataPackets();
+
+	public long getReceivedDataPackets();
+
+	public long getDuplicateDataPackets();
+
+	public long getSentDataBytes();
+
+	public long getReceivedDataBytes();
+
+	public long getACKSent();
+
+	public long getACKReceived();
+
+	public long getLightACKSent();
+
+	public long getLightACKReceived();
+
+	public long getACK2Sent();
+
+	public long getACK2Received();
+
+	public long getNAKSent();
+
+	public long getNAKReceived();
+
+	public long getControlPacketsSent();
+
+	public long getControlPacketsReceived();
+
+	public double getControlToDataRatio();
+
+	/**
+	 * how often the sender waited because the socket send buffer was full
+	 */
+	public long getSocketBufferFullEvents();
+
+	public double getRetransmitPercentage();
+
+	/* congestion control */
+
+	/**
+	 * packet send period in microseconds
+	 */
+	public double getSendPeriod();
+
+	public double getCongestionWindowSize();
+
+	/**
+	 * round trip time in microseconds
+	 */
+	public long getRoundTripTime();
+
+	public long getRoundTripTimeVariance();
+
+	/**
+	 * packets per second
+	 */
+	public long getPacketArrivalRate();
+
+	/**
+	 * packets per second
+	 */
+	public long getEstimatedLinkCapacity();
+
+	/* buffers */
+
+	public int getFlowWindowSize();
+
+	/**
+	 * data packets in the flow window, waiting to be sent
+	 */
+	public int getFlowWindowOccupancy();
+
+	/**
+	 * packets sent but not yet acknowledged
+	 */
+	public int getUnacknowledgedPackets();
+
+	public int getSenderLossListSize();
+
+	public int getReceiverLossListSize();
+
+	public int getReceiveBufferSize();
+
+	/**
+	 * data chunks in the receive buffer, waiting to be read
+	 */
+	public int getReceiveBufferFill();
+
+	/**
+	 * the statistics in human readable form
+	 */
+	public String dumpStatistics();
+
+	/**
+	 * the latency histograms (count, min, p50, p99, p99.9, max, mean in microseconds)
+	 */
+	public String dumpLatencyHistograms();
+
+	public void resetLatencyHistograms();
+
+	public boolean isEventTraceEnabled();
+
+	/**
+	 * write the event trace to the given file (see {@link udt.util.TraceDecoder})
+	 * @return the number of events written
+	 */
+	public int dumpEventTrace(String fileName)throws IOException;
+
+}
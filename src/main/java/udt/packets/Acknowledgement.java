@@ -58,6 +58,10 @@ public class Acknowledgement extends ControlPacket {
 	private long pktArrivalSpeed;
 	//estimated link capacity in number of packets per second
 	private long estimatedLinkCapacity;
+	//one-way delay in microseconds, relative to the first delay sample of the receiver
+	private long oneWayDelay;
+	//a light ACK carries the ack number only
+	private boolean light;
 
 	public Acknowledgement(){
 		this.controlPacketType=ControlPacketType.ACK.ordinal();
@@ -71,6 +75,7 @@ public class Acknowledgement extends ControlPacket {
 
 	void decodeControlInformation(byte[] data){
 		ackNumber=PacketUtil.decode(data, 0);
+		light=data.length<=4;
 		if(data.length>4){
 			roundTripTime =PacketUtil.decode(data, 4);
 			roundTripTimeVariance = PacketUtil.decode(data, 8);
@@ -80,6 +85,9 @@ public class Acknowledgement extends ControlPacket {
 			pktArrivalSpeed = PacketUtil.decode(data, 16);
 			estimatedLinkCapacity = PacketUtil.decode(data, 20);
 		}
+		if(data.length>24){
+			oneWayDelay = PacketUtil.decode(data, 24);
+		}
 	}
 
 	@Override
@@ -162,8 +170,34 @@ public class Acknowledgement extends ControlPacket {
 		this.estimatedLinkCapacity = estimatedLinkCapacity;
 	}
 
+	/**
+	 * get the one-way delay (microseconds), relative to an arbitrary base
+	 * chosen by the receiver. Only differences between values are meaningful.
+	 */
+	public long getOneWayDelay() {
+		return oneWayDelay;
+	}
+
+	public void setOneWayDelay(long oneWayDelay) {
+		this.oneWayDelay = oneWayDelay;
+	}
+
+	/**
+	 * a light ACK only carries the ack number (no RTT, rates, etc)
+	 */
+	public boolean isLight() {
+		return light;
+	}
+
+	public void setLight(boolean light) {
+		this.light = light;
+	}
+
 	@Override
 	public byte[] encodeControlInformation(){
+		if(light){
+			return PacketUtil.encode(ackNumber);
+		}
 		try {
 			ByteArrayOutputStream bos=new ByteArrayOutputStream();
 			bos.write(PacketUtil.encode(ackNumber));
@@ -172,6 +206,7 @@ public class Acknowledgement extends ControlPacket {
 			bos.write(PacketUtil.encode(bufferSize));
 			bos.write(PacketUtil.encode(pktArrivalSpeed));
 			bos.write(PacketUtil.encode(estimatedLinkCapacity));
+			bos.write(PacketUtil.encode(oneWayDelay));
 
 			return bos.toByteArray();
 		} catch (Exception e) {
@@ -194,6 +229,8 @@ public class Acknowledgement extends ControlPacket {
 		Acknowledgement other = (Acknowledgement) obj;
 		if (ackNumber != other.ackNumber)
 			return false;
+		if (light != other.light)
+			return false;
 		if (roundTripTime != other.roundTripTime)
 			return false;
 		if (roundTripTimeVariance != other.roundTripTimeVariance)
@@ -204,6 +241,8 @@ public class Acknowledgement extends ControlPacket {
 			return false;
 		if (pktArrivalSpeed != other.pktArrivalSpeed)
 			return false;
+		if (oneWayDelay != other.oneWayDelay)
+			return false;
 		return true;
 	}
 
@@ -32,12 +32,17 @@
 
 package udt.packets;
 
+import java.nio.ByteBuffer;
+
 import udt.UDTPacket;
 import udt.UDTSession;
 
 public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 
 	private byte[] data ;
+
+	//the data if it references a buffer, see setData(ByteBuffer)
+	private ByteBuffer payload;
 	private long packetSequenceNumber;
 	private long messageNumber;
 	private long timeStamp;
@@ -88,9 +93,35 @@ public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 	
 	public void setData(byte[] data) {
 		this.data = data;
+		payload=null;
 		dataLength=data.length;
 	}
 
+	/**
+	 * reference the remaining bytes of the buffer as data, without copying them.
+	 * The buffer's position and limit must not be changed afterwards.
+	 */
+	public void setData(ByteBuffer payload) {
+		this.payload = payload;
+		data=null;
+		dataLength=payload.remaining();
+	}
+
+	/**
+	 * true if the data references a buffer set with {@link #setData(ByteBuffer)},
+	 * in which case {@link #getData()} returns <code>null</code>
+	 */
+	public boolean isReference() {
+		return payload!=null;
+	}
+
+	/**
+	 * the data as a new buffer view, of the referenced buffer or of the data array
+	 */
+	public ByteBuffer getPayload() {
+		return payload!=null?payload.duplicate():ByteBuffer.wrap(data, 0, dataLength);
+	}
+
 	public long getPacketSequenceNumber() {
 		return this.packetSequenceNumber;
 	}
@@ -130,12 +161,30 @@ public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 	public byte[] getEncoded(){
 		//header.length is 16
 		byte[] result=new byte[16+dataLength];
+		encodeHeader(result);
+		if(payload!=null){
+			payload.duplicate().get(result, 16, dataLength);
+		}
+		else{
+			System.arraycopy(data, 0, result, 16, dataLength);
+		}
+		return result;
+	}
+
+	/**
+	 * the 16 byte header, for sending it together with {@link #getPayload()}
+	 */
+	public byte[] getEncodedHeader(){
+		byte[] result=new byte[16];
+		encodeHeader(result);
+		return result;
+	}
+
+	private void encodeHeader(byte[] result){
 		System.arraycopy(PacketUtil.encode(packetSequenceNumber), 0, result, 0, 4);
 		System.arraycopy(PacketUtil.encode(messageNumber), 0, result, 4, 4);
 		System.arraycopy(PacketUtil.encode(timeStamp), 0, result, 8, 4);
 		System.arraycopy(PacketUtil.encode(destinationID), 0, result, 12, 4);
-		System.arraycopy(data, 0, result, 16, dataLength);
-		return result;
 	}
 
 	public boolean isControlPacket(){
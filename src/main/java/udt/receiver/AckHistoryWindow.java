@@ -56,9 +56,13 @@ public class AckHistoryWindow extends CircularArray<AckHistoryEntry>{
 		return -1;
 	}
 	
-	public AckHistoryEntry getEntry(long ackNumber){
+	/**
+	 * return the entry for the given ACK sequence number, or <code>null</code> if not known
+	 * @param ackSequenceNumber
+	 */
+	public AckHistoryEntry getEntry(long ackSequenceNumber){
 		for(AckHistoryEntry obj: circularArray){
-			if(obj.getAckNumber()==ackNumber){
+			if(obj.getAckSequenceNumber()==ackSequenceNumber){
 				return obj;
 			}
 		}
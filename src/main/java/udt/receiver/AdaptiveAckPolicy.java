@@ -0,0 +1,71 @@
+package udt.receiver;
+
+import udt.util.Util;
+
+/**
+ * decides how often the receiver sends ACKs.<br/>
+ *
+ * Without adaptation (the default), a full ACK is sent every SYN and a light ACK every
+ * n-th data packet, where n is the ACK interval requested by the congestion control.<br/>
+ *
+ * With adaptation (system property <code>udt.receiver.adaptiveAck=true</code>), the ACK
+ * frequency follows the packet rate and the RTT: full ACKs are sent about
+ * {@link #FULL_ACKS_PER_RTT} times per RTT (but at least every 4*SYN and at most every SYN),
+ * and light ACKs about {@link #LIGHT_ACKS_PER_RTT} times per RTT, not more often than the
+ * congestion control asks for, but at least four times per flow window (this takes precedence,
+ * so a window limited sender is not stalled).
+ */
+public class AdaptiveAckPolicy {
+
+	public static final String ADAPTIVE_ACK="udt.receiver.adaptiveAck";
+
+	//full ACKs per RTT
+	static final int FULL_ACKS_PER_RTT=4;
+
+	//light ACKs per RTT
+	static final int LIGHT_ACKS_PER_RTT=8;
+
+	private final boolean adaptive;
+
+	//upper limit for the light ACK interval (packets)
+	private final long maxLightAckInterval;
+
+	public AdaptiveAckPolicy(int flowWindowSize){
+		this(Boolean.getBoolean(ADAPTIVE_ACK), flowWindowSize);
+	}
+
+	public AdaptiveAckPolicy(boolean adaptive, int flowWindowSize){
+		this.adaptive=adaptive;
+		this.maxLightAckInterval=Math.max(1, flowWindowSize/4);
+	}
+
+	public boolean isAdaptive(){
+		return adaptive;
+	}
+
+	/**
+	 * the interval between full ACKs
+	 * @param roundTripTime - RTT in microseconds, 0 if not yet known
+	 * @return interval in microseconds
+	 */
+	public long getAckTimerInterval(long roundTripTime){
+		long syn=Util.getSYNTime();
+		if(!adaptive || roundTripTime<=0)return syn;
+		return Math.min(Math.max(roundTripTime/FULL_ACKS_PER_RTT, syn), 4*syn);
+	}
+
+	/**
+	 * the number of data packets between light ACKs
+	 * @param ccAckInterval - the ACK interval requested by the congestion control, light ACKs are
+	 *                        only sent if it is positive
+	 * @param packetArrivalRate - packets per second
+	 * @param roundTripTime - RTT in microseconds
+	 */
+	public long getLightAckInterval(long ccAckInterval, long packetArrivalRate, long roundTripTime){
+		if(!adaptive || ccAckInterval<=0 || packetArrivalRate<=0 || roundTripTime<=0)return ccAckInterval;
+		long packetsPerRTT=packetArrivalRate*roundTripTime/1000000;
+		long interval=Math.max(ccAckInterval, packetsPerRTT/LIGHT_ACKS_PER_RTT);
+		return Math.min(interval, maxLightAckInterval);
+	}
+
+}
@@ -119,9 +119,30 @@ public class FlowWindow {
 		return isEmpty;
 	}
 
+	/**
+	 * true if there is no free slot for the producer
+	 */
+	public boolean isFull(){
+		return isFull;
+	}
+
 	public boolean isLow() {
 		return (validEntries < length/2);
 	}
+
+	/**
+	 * the number of data packets the flow window can hold
+	 */
+	public int getSize(){
+		return length-1;
+	}
+
+	/**
+	 * the number of data packets waiting to be sent
+	 */
+	public int getValidEntries(){
+		return validEntries;
+	}
 	
 	public String toString(){
 		StringBuilder sb=new StringBuilder();
@@ -0,0 +1,131 @@
+package udt.sender;
+
+/**
+ * delivery rate sample, taken when an ACK acknowledges new data.<br/>
+ *
+ * The rate is measured between the delivery of the packets that were acknowledged
+ * when the most recently acknowledged packet was sent, and now. The same instance is
+ * reused for every ACK, so the values are only valid during the callback.
+ *
+ * @see RateSampler
+ */
+public class RateSample {
+
+	//packets and bytes delivered in the sample interval
+	long deliveredPackets;
+	long deliveredBytes;
+
+	//sample interval in microseconds
+	long interval;
+
+	//total number of delivered packets when the most recently acknowledged packet was sent, and now
+	long priorDelivered;
+	long delivered;
+
+	//packets and bytes newly acknowledged by this ACK
+	long newlyAcked;
+	long newlyAckedBytes;
+
+	//packets reported lost since the previous sample
+	long newlyLost;
+
+	//packets in flight when the most recently acknowledged packet was sent, and after this ACK
+	long priorInFlight;
+	long packetsInFlight;
+
+	//send time of the most recently acknowledged packet, and the ACK time (microseconds)
+	long sendTime;
+	long ackTime;
+
+	//round trip time of the most recently acknowledged packet, -1 if it was retransmitted
+	long rtt;
+
+	boolean appLimited;
+
+	/**
+	 * the delivery rate in packets per second, 0 if the interval is empty
+	 */
+	public double getDeliveryRate(){
+		return interval>0?1000000.0*deliveredPackets/interval:0;
+	}
+
+	/**
+	 * the delivery rate in bytes per second, 0 if the interval is empty
+	 */
+	public double getDeliveryRateBytes(){
+		return interval>0?1000000.0*deliveredBytes/interval:0;
+	}
+
+	public long getDeliveredPackets() {
+		return deliveredPackets;
+	}
+
+	public long getDeliveredBytes() {
+		return deliveredBytes;
+	}
+
+	/**
+	 * the sample interval in microseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	public long getPriorDelivered() {
+		return priorDelivered;
+	}
+
+	public long getDelivered() {
+		return delivered;
+	}
+
+	public long getNewlyAcked() {
+		return newlyAcked;
+	}
+
+	public long getNewlyAckedBytes() {
+		return newlyAckedBytes;
+	}
+
+	public long getNewlyLost() {
+		return newlyLost;
+	}
+
+	public long getPriorInFlight() {
+		return priorInFlight;
+	}
+
+	public long getPacketsInFlight() {
+		return packetsInFlight;
+	}
+
+	public long getSendTime() {
+		return sendTime;
+	}
+
+	public long getAckTime() {
+		return ackTime;
+	}
+
+	/**
+	 * the RTT of the most recently acknowledged packet in microseconds,
+	 * or -1 if it was retransmitted
+	 */
+	public long getRTT() {
+		return rtt;
+	}
+
+	/**
+	 * true if the sender ran out of application data while the sampled packets were in flight,
+	 * so the rate may be below the available bandwidth
+	 */
+	public boolean isAppLimited() {
+		return appLimited;
+	}
+
+	public String toString(){
+		return "RateSample[delivered="+deliveredPackets+" interval="+interval+" rate="+(long)getDeliveryRate()
+				+" acked="+newlyAcked+" lost="+newlyLost+" inflight="+packetsInFlight+" rtt="+rtt
+				+(appLimited?" app-limited":"")+"]";
+	}
+}
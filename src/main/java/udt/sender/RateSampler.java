@@ -0,0 +1,175 @@
+package udt.sender;
+
+import udt.util.SequenceNumber;
+
+/**
+ * keeps per-packet send state and produces a {@link RateSample} for each ACK,
+ * following the delivery rate estimation of "Delivery Rate Estimation"
+ * (draft-cheng-iccrg-delivery-rate-estimation).<br/>
+ *
+ * The state is held in preallocated arrays indexed by sequence number, so the
+ * capacity must be at least the flow window size. Neither sending nor acknowledging
+ * allocates. Not thread safe, the caller has to synchronize.
+ */
+public class RateSampler {
+
+	private final int mask;
+
+	//per-packet state at send time
+	private final long[] sendTime;
+	private final long[] deliveredAtSend;
+	private final long[] deliveredBytesAtSend;
+	private final long[] deliveredTimeAtSend;
+	private final long[] firstSentTimeAtSend;
+	private final long[] inFlightAtSend;
+	private final int[] length;
+	private final boolean[] appLimitedAtSend;
+	private final boolean[] retransmitted;
+
+	//total delivered packets and bytes, and the time of the last delivery
+	private long delivered=0;
+	private long deliveredBytes=0;
+	private long deliveredTime=0;
+
+	//send time of the most recently acknowledged packet
+	private long firstSentTime=0;
+
+	//the app-limited phase ends once this many packets have been delivered, 0 if not app-limited
+	private long appLimitedUntil=0;
+
+	//packets reported lost since the last sample
+	private long lost=0;
+
+	private final RateSample sample=new RateSample();
+
+	/**
+	 * @param capacity - max. number of packets in flight
+	 */
+	public RateSampler(int capacity){
+		int size=Integer.highestOneBit(Math.max(capacity, 2)-1)<<1;
+		mask=size-1;
+		sendTime=new long[size];
+		deliveredAtSend=new long[size];
+		deliveredBytesAtSend=new long[size];
+		deliveredTimeAtSend=new long[size];
+		firstSentTimeAtSend=new long[size];
+		inFlightAtSend=new long[size];
+		length=new int[size];
+		appLimitedAtSend=new boolean[size];
+		retransmitted=new boolean[size];
+	}
+
+	/**
+	 * record a data packet that is sent (or re-sent)
+	 * @param seqNo - packet sequence number
+	 * @param len - packet length in bytes
+	 * @param now - current time in microseconds
+	 * @param packetsInFlight - packets in flight before this one was sent
+	 * @param retransmit - whether this is a retransmission
+	 */
+	public void onSend(long seqNo, int len, long now, long packetsInFlight, boolean retransmit){
+		if(packetsInFlight<=0){
+			//start of a new flight: the interval starts now
+			firstSentTime=now;
+			deliveredTime=now;
+		}
+		int i=(int)(seqNo&mask);
+		sendTime[i]=now;
+		deliveredAtSend[i]=delivered;
+		deliveredBytesAtSend[i]=deliveredBytes;
+		deliveredTimeAtSend[i]=deliveredTime;
+		firstSentTimeAtSend[i]=firstSentTime;
+		inFlightAtSend[i]=packetsInFlight;
+		length[i]=len;
+		appLimitedAtSend[i]=appLimitedUntil!=0;
+		retransmitted[i]=retransmit;
+	}
+
+	/**
+	 * mark the sender as application limited, i.e. it has no data to send
+	 * although the congestion window would allow it
+	 * @param packetsInFlight - packets currently in flight
+	 */
+	public void setAppLimited(long packetsInFlight){
+		appLimitedUntil=Math.max(delivered+packetsInFlight, 1);
+	}
+
+	public boolean isAppLimited(){
+		return appLimitedUntil!=0;
+	}
+
+	/**
+	 * record packets reported lost (e.g. by a NAK)
+	 */
+	public void onLoss(long packets){
+		lost+=packets;
+	}
+
+	/**
+	 * process an ACK acknowledging the sequence numbers from <code>fromSeqNo</code> (inclusive)
+	 * to <code>toSeqNo</code> (exclusive)
+	 * @param now - current time in microseconds
+	 * @param packetsInFlight - packets in flight after this ACK
+	 * @return the (reused) rate sample, or <code>null</code> if nothing new was acknowledged
+	 */
+	public RateSample onAck(long fromSeqNo, long toSeqNo, long now, long packetsInFlight){
+		long acked=SequenceNumber.seqOffset(fromSeqNo, toSeqNo);
+		if(acked<=0)return null;
+		//state for older packets has been overwritten, count them only
+		long seq=fromSeqNo;
+		long skipped=0;
+		if(acked>mask+1){
+			skipped=acked-mask-1;
+			for(long k=0;k<skipped;k++)seq=SequenceNumber.increment(seq);
+		}
+		//the sample is based on the most recently sent packet. ACKs are cumulative, so when a
+		//retransmission fills a hole, the packets behind it were delivered long before: prefer
+		//original transmissions, otherwise the rate would be inflated
+		long ackedBytes=0;
+		int newest=-1;
+		int newestOriginal=-1;
+		for(long k=skipped;k<acked;k++){
+			int i=(int)(seq&mask);
+			ackedBytes+=length[i];
+			if(newest<0 || sendTime[i]>=sendTime[newest])newest=i;
+			if(!retransmitted[i] && (newestOriginal<0 || sendTime[i]>=sendTime[newestOriginal]))newestOriginal=i;
+			seq=SequenceNumber.increment(seq);
+		}
+		if(newestOriginal>=0)newest=newestOriginal;
+		delivered+=acked;
+		deliveredBytes+=ackedBytes;
+		deliveredTime=now;
+		if(appLimitedUntil!=0 && delivered>appLimitedUntil)appLimitedUntil=0;
+
+		RateSample rs=sample;
+		rs.priorDelivered=deliveredAtSend[newest];
+		rs.delivered=delivered;
+		rs.deliveredPackets=delivered-deliveredAtSend[newest];
+		rs.deliveredBytes=deliveredBytes-deliveredBytesAtSend[newest];
+		//use the longer of the send and ACK phases, so ACK compression does not inflate the rate
+		long sendElapsed=sendTime[newest]-firstSentTimeAtSend[newest];
+		long ackElapsed=now-deliveredTimeAtSend[newest];
+		rs.interval=Math.max(sendElapsed, ackElapsed);
+		rs.newlyAcked=acked;
+		rs.newlyAckedBytes=ackedBytes;
+		rs.newlyLost=lost;
+		rs.priorInFlight=inFlightAtSend[newest];
+		rs.packetsInFlight=packetsInFlight;
+		rs.sendTime=sendTime[newest];
+		rs.ackTime=now;
+		rs.rtt=retransmitted[newest]?-1:now-sendTime[newest];
+		rs.appLimited=appLimitedAtSend[newest];
+		lost=0;
+		firstSentTime=sendTime[newest];
+		return rs;
+	}
+
+	public long getDelivered(){
+		return delivered;
+	}
+
+	public long getDeliveredBytes(){
+		return deliveredBytes;
+	}
+
+}
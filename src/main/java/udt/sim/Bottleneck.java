@@ -0,0 +1,120 @@
+package udt.sim;
+
+import java.util.ArrayDeque;
+
+/**
+ * the bottleneck link: a drop-tail queue served at a fixed rate, followed by
+ * the (one-way) propagation delay to the receivers. Random loss is applied
+ * when a packet arrives at the queue.
+ */
+class Bottleneck {
+
+	private final Simulator sim;
+
+	//transmission time of one packet in microseconds
+	private final double serviceTime;
+
+	//queue size in packets
+	private final int bufferSize;
+
+	private final double lossRate;
+
+	private final ArrayDeque<SimPacket> queue=new ArrayDeque<SimPacket>();
+
+	//time the packet currently in service will have left the link
+	private double departureTime=0;
+
+	private final DelayLine<SimPacket> propagation;
+
+	private long forwarded=0;
+	private long overflowDrops=0;
+	private long randomDrops=0;
+	private long queueDelaySum=0;
+	private long queueDelayMax=0;
+
+	private final Simulator.Event departure=new Simulator.Event(){
+		@Override
+		void run(){
+			SimPacket p=queue.poll();
+			//waiting time, not counting the packet's own transmission
+			long delay=Math.max(0, sim.now()-p.enqueueTime-(long)serviceTime);
+			queueDelaySum+=delay;
+			queueDelayMax=Math.max(queueDelayMax, delay);
+			forwarded++;
+			propagation.add(p);
+			if(!queue.isEmpty())scheduleDeparture();
+		}
+	};
+
+	public Bottleneck(Simulator sim, double serviceTime, int bufferSize, double lossRate, long propagationDelay){
+		this.sim=sim;
+		this.serviceTime=serviceTime;
+		this.bufferSize=bufferSize;
+		this.lossRate=lossRate;
+		this.propagation=new DelayLine<SimPacket>(sim, propagationDelay){
+			@Override
+			void deliver(SimPacket p){
+				p.flow.onDataPacketReceived(p);
+			}
+		};
+	}
+
+	public void enqueue(SimPacket p){
+		if(lossRate>0 && sim.random.nextDouble()<lossRate){
+			randomDrops++;
+			p.flow.drops++;
+			return;
+		}
+		if(queue.size()>=bufferSize){
+			overflowDrops++;
+			p.flow.drops++;
+			return;
+		}
+		p.enqueueTime=sim.now();
+		queue.add(p);
+		if(queue.size()==1)scheduleDeparture();
+	}
+
+	private void scheduleDeparture(){
+		departureTime=Math.max(departureTime, sim.now())+serviceTime;
+		sim.schedule(departure, (long)departureTime);
+	}
+
+	/**
+	 * the time (microseconds) a packet arriving now would wait in the queue
+	 */
+	public long getBacklogDelay(){
+		return (long)(queue.size()*serviceTime);
+	}
+
+	public int getQueueLength(){
+		return queue.size();
+	}
+
+	public long getForwarded(){
+		return forwarded;
+	}
+
+	public long getOverflowDrops(){
+		return overflowDrops;
+	}
+
+	public long getRandomDrops(){
+		return randomDrops;
+	}
+
+	/**
+	 * mean queuing delay in microseconds
+	 */
+	public double getMeanQueueDelay(){
+		return forwarded>0?(double)queueDelaySum/forwarded:0;
+	}
+
+	/**
+	 * max queuing delay in microseconds
+	 */
+	public long getMaxQueueDelay(){
+		return queueDelayMax;
+	}
+
+}
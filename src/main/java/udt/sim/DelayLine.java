@@ -0,0 +1,46 @@
+package udt.sim;
+
+import java.util.ArrayDeque;
+
+/**
+ * fixed delay (e.g. propagation delay of a link). As all items are delayed
+ * by the same amount, they leave in order, so only the head item
+ * needs a pending event.
+ */
+abstract class DelayLine<T> extends Simulator.Event {
+
+	private final Simulator sim;
+
+	//delay in microseconds
+	private final long delay;
+
+	private final ArrayDeque<T> items=new ArrayDeque<T>();
+
+	private final ArrayDeque<Long> times=new ArrayDeque<Long>();
+
+	public DelayLine(Simulator sim, long delay){
+		this.sim=sim;
+		this.delay=delay;
+	}
+
+	public void add(T item){
+		long time=sim.now()+delay;
+		items.add(item);
+		times.add(time);
+		if(items.size()==1)sim.schedule(this, time);
+	}
+
+	@Override
+	void run(){
+		T item=items.poll();
+		times.poll();
+		if(!items.isEmpty())sim.schedule(this, times.peek());
+		deliver(item);
+	}
+
+	/**
+	 * called when the item leaves the delay line
+	 */
+	abstract void deliver(T item);
+
+}
@@ -0,0 +1,362 @@
+package udt.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import udt.CongestionControl;
+import udt.RateSampleCongestionControl;
+import udt.UDTSession;
+import udt.sender.RateSample;
+import udt.sender.RateSampler;
+import udt.util.Util;
+
+/**
+ * a bulk transfer through the bottleneck, driven by a {@link CongestionControl}.<br/>
+ *
+ * The sender follows UDTSender: lost packets are retransmitted first, new packets
+ * are sent while the packets in flight stay below the congestion and flow windows,
+ * and packets are spaced by the send interval. The receiver follows UDTReceiver:
+ * NAKs are sent as soon as a gap is detected and repeated by the NAK timer, full ACKs
+ * are sent every SYN and carry the RTT, the packet arrival rate, the packet pair
+ * link capacity and the one-way delay. Control packets are not delayed by the queue.
+ */
+class SimFlow {
+
+	final int id;
+
+	private final Simulator sim;
+
+	private final Bottleneck link;
+
+	private final SimSession session;
+
+	private final CongestionControl cc;
+
+	//the congestion control, if it wants rate samples
+	private final RateSampleCongestionControl rateCC;
+
+	private final RateSampler rateSampler;
+
+	private final int packetSize;
+
+	final long startTime;
+
+	//round trip propagation delay in microseconds
+	private final long propagationRTT;
+
+	//reverse path for ACK and NAK
+	private final DelayLine<Feedback> reversePath;
+
+	/* sender state */
+
+	//all packets before this one have been acknowledged
+	private long lastAckSequenceNumber=0;
+	private long largestSentSequenceNumber=-1;
+	private final TreeSet<Long> senderLossList=new TreeSet<Long>();
+	private double nextSendTime=0;
+	private boolean sendScheduled=false;
+	private boolean windowBlocked=false;
+	private long lastFeedbackTime=0;
+	private int expCount=1;
+
+	/* receiver state */
+
+	//all packets before this one have been received
+	private long receiverNext=0;
+	private long largestReceivedSequenceNumber=-1;
+	private final Set<Long> receivedOutOfOrder=new HashSet<Long>();
+	//lost sequence numbers and the time they were last reported
+	private final TreeMap<Long,Long> receiverLossList=new TreeMap<Long,Long>();
+	private long lastAckNumber=-1;
+	private long lastAckTime=0;
+	private long arrivalsSinceAck=0;
+	private long lastArrivalTime=0;
+	private final long[] packetPairIntervals=new long[16];
+	private int packetPairCount=0;
+	private long roundTripTime=0;
+	private long roundTripTimeVar=0;
+	private long oneWayDelay=0;
+	private long minOneWayDelay=Long.MAX_VALUE;
+
+	/* statistics */
+	long sent=0;
+	long retransmitted=0;
+	long delivered=0;
+	long drops=0;
+	long nakReceived=0;
+	long timeouts=0;
+
+	private final Simulator.Event sendEvent=new Simulator.Event(){
+		@Override
+		void run(){
+			sendScheduled=false;
+			sendNext();
+		}
+	};
+
+	private final Simulator.Event timerEvent=new Simulator.Event(){
+		@Override
+		void run(){
+			onTimer();
+			sim.schedule(this, sim.now()+Util.getSYNTime());
+		}
+	};
+
+	public SimFlow(int id, String ccClass, Simulator sim, Bottleneck link, long propagationRTT, int flowWindowSize, int packetSize, long startTime){
+		this.id=id;
+		this.sim=sim;
+		this.link=link;
+		this.propagationRTT=propagationRTT;
+		this.packetSize=packetSize;
+		this.startTime=startTime;
+		System.setProperty(UDTSession.CC_CLASS, ccClass);
+		session=new SimSession("Flow "+id, sim, flowWindowSize);
+		cc=session.getCongestionControl();
+		rateCC=cc instanceof RateSampleCongestionControl?(RateSampleCongestionControl)cc:null;
+		rateSampler=new RateSampler(flowWindowSize);
+		reversePath=new DelayLine<Feedback>(sim, propagationRTT/2){
+			@Override
+			void deliver(Feedback f){
+				if(f.lossInfo!=null)onNAK(f);
+				else onACK(f);
+			}
+		};
+		sim.schedule(new Simulator.Event(){
+			@Override
+			void run(){
+				start();
+			}
+		}, startTime);
+	}
+
+	public CongestionControl getCongestionControl(){
+		return cc;
+	}
+
+	private void start(){
+		cc.init();
+		lastFeedbackTime=sim.now();
+		lastAckTime=sim.now();
+		sendNext();
+		sim.schedule(timerEvent, sim.now()+Util.getSYNTime());
+	}
+
+	public void stop(){
+		cc.close();
+	}
+
+	/* sender */
+
+	private void sendNext(){
+		long now=sim.now();
+		long inFlight=largestSentSequenceNumber-lastAckSequenceNumber+1;
+		long seqNo;
+		Long lost=senderLossList.pollFirst();
+		boolean retransmit=lost!=null;
+		if(retransmit){
+			seqNo=lost;
+			retransmitted++;
+		}
+		else{
+			double window=Math.min(cc.getCongestionWindowSize(), session.getFlowWindowSize());
+			if(inFlight>=window){
+				windowBlocked=true;
+				return;
+			}
+			seqNo=session.getSender().getNextSequenceNumber();
+			largestSentSequenceNumber=seqNo;
+			session.getSender().onSent(seqNo);
+		}
+		link.enqueue(new SimPacket(this, seqNo, now));
+		rateSampler.onSend(seqNo, packetSize, now, inFlight, retransmit);
+		cc.onPacketSend(seqNo);
+		if(rateCC!=null)rateCC.onPacketSent(seqNo, packetSize, now, inFlight, false, retransmit);
+		sent++;
+		nextSendTime=Math.max(nextSendTime, now)+cc.getSendInterval();
+		scheduleSend();
+	}
+
+	private void scheduleSend(){
+		if(sendScheduled)return;
+		sendScheduled=true;
+		sim.schedule(sendEvent, Math.max(sim.now(), (long)nextSendTime));
+	}
+
+	//continue sending after the window was full
+	private void wakeup(){
+		if(windowBlocked || !senderLossList.isEmpty()){
+			windowBlocked=false;
+			scheduleSend();
+		}
+	}
+
+	private void onACK(Feedback ack){
+		if(ack.roundTripTime>0)cc.setRTT(ack.roundTripTime, ack.roundTripTimeVar);
+		if(ack.packetArrivalRate>0)cc.updatePacketArrivalRate(ack.packetArrivalRate, ack.estimatedLinkCapacity);
+		cc.updateOneWayDelay(ack.oneWayDelay);
+		if(ack.ackNumber>lastAckSequenceNumber){
+			long inFlight=Math.max(0, largestSentSequenceNumber-ack.ackNumber+1);
+			RateSample rs=rateSampler.onAck(lastAckSequenceNumber, ack.ackNumber, sim.now(), inFlight);
+			if(rateCC!=null && rs!=null)rateCC.onRateSample(rs);
+		}
+		cc.onACK(ack.ackNumber);
+		if(ack.ackNumber>lastAckSequenceNumber){
+			lastAckSequenceNumber=ack.ackNumber;
+			senderLossList.headSet(ack.ackNumber).clear();
+		}
+		lastFeedbackTime=sim.now();
+		expCount=1;
+		wakeup();
+	}
+
+	private void onNAK(Feedback nak){
+		for(Integer i: nak.lossInfo){
+			if(i>=lastAckSequenceNumber)senderLossList.add(Long.valueOf(i));
+		}
+		rateSampler.onLoss(nak.lossInfo.size());
+		cc.onLoss(nak.lossInfo);
+		nakReceived++;
+		lastFeedbackTime=sim.now();
+		expCount=1;
+		wakeup();
+	}
+
+	//EXP: no feedback for too long, assume all unacknowledged packets are lost
+	private void checkEXP(long now){
+		if(largestSentSequenceNumber<lastAckSequenceNumber)return;
+		long expInterval=Math.max(expCount*(roundTripTime+4*roundTripTimeVar)+Util.getSYNTime(), 30*Util.getSYNTime());
+		if(now-lastFeedbackTime<expInterval)return;
+		for(long s=lastAckSequenceNumber;s<=largestSentSequenceNumber;s++){
+			senderLossList.add(s);
+		}
+		cc.onTimeout();
+		timeouts++;
+		expCount++;
+		lastFeedbackTime=now;
+		wakeup();
+	}
+
+	/* receiver */
+
+	void onDataPacketReceived(SimPacket p){
+		long now=sim.now();
+		long seq=p.sequenceNumber;
+		minOneWayDelay=Math.min(minOneWayDelay, now-p.sendTime);
+		if((seq%16)==1 && lastArrivalTime>0){
+			packetPairIntervals[packetPairCount++%packetPairIntervals.length]=now-lastArrivalTime;
+		}
+		lastArrivalTime=now;
+		arrivalsSinceAck++;
+
+		if(seq>largestReceivedSequenceNumber+1){
+			List<Integer>lossInfo=new ArrayList<Integer>();
+			for(long s=largestReceivedSequenceNumber+1;s<seq;s++){
+				receiverLossList.put(s, now);
+				lossInfo.add((int)s);
+			}
+			sendNAK(lossInfo);
+		}
+		else if(seq<largestReceivedSequenceNumber){
+			receiverLossList.remove(seq);
+		}
+		if(seq>largestReceivedSequenceNumber)largestReceivedSequenceNumber=seq;
+
+		if(seq==receiverNext){
+			delivered++;
+			receiverNext++;
+			while(receivedOutOfOrder.remove(receiverNext))receiverNext++;
+		}
+		else if(seq>receiverNext && receivedOutOfOrder.add(seq)){
+			delivered++;
+		}
+	}
+
+	private void onTimer(){
+		long now=sim.now();
+		//RTT from the ACK/ACK2 exchange, the ACK2 is queued at the bottleneck
+		long rtt=propagationRTT+link.getBacklogDelay();
+		if(roundTripTime==0){
+			roundTripTime=rtt;
+			roundTripTimeVar=rtt/2;
+		}
+		else{
+			roundTripTimeVar=(roundTripTimeVar*3+Math.abs(roundTripTime-rtt))/4;
+			roundTripTime=(roundTripTime*7+rtt)/8;
+		}
+		sendACK(now);
+		repeatNAK(now);
+		checkEXP(now);
+	}
+
+	private void sendACK(long now){
+		if(receiverNext==lastAckNumber)return;
+		Feedback ack=new Feedback();
+		ack.ackNumber=receiverNext;
+		ack.roundTripTime=roundTripTime;
+		ack.roundTripTimeVar=roundTripTimeVar;
+		if(now>lastAckTime)ack.packetArrivalRate=arrivalsSinceAck*1000000/(now-lastAckTime);
+		ack.estimatedLinkCapacity=getEstimatedLinkCapacity();
+		if(minOneWayDelay!=Long.MAX_VALUE){
+			oneWayDelay=minOneWayDelay;
+			minOneWayDelay=Long.MAX_VALUE;
+		}
+		ack.oneWayDelay=oneWayDelay;
+		arrivalsSinceAck=0;
+		lastAckTime=now;
+		lastAckNumber=receiverNext;
+		reversePath.add(ack);
+	}
+
+	//report losses again if they were not repaired within the NAK interval
+	private void repeatNAK(long now){
+		receiverLossList.headMap(receiverNext).clear();
+		long nakInterval=4*roundTripTime+roundTripTimeVar+Util.getSYNTime();
+		List<Integer>lossInfo=new ArrayList<Integer>();
+		for(Iterator<Map.Entry<Long,Long>>it=receiverLossList.entrySet().iterator();it.hasNext();){
+			Map.Entry<Long,Long>e=it.next();
+			if(now-e.getValue()>nakInterval){
+				lossInfo.add(e.getKey().intValue());
+				e.setValue(now);
+			}
+		}
+		if(!lossInfo.isEmpty())sendNAK(lossInfo);
+	}
+
+	private void sendNAK(List<Integer>lossInfo){
+		Feedback nak=new Feedback();
+		nak.lossInfo=lossInfo;
+		reversePath.add(nak);
+	}
+
+	//median of the packet pair intervals, as in PacketPairWindow
+	private long getEstimatedLinkCapacity(){
+		int n=Math.min(packetPairCount, packetPairIntervals.length);
+		if(n==0)return 0;
+		long[] sorted=Arrays.copyOf(packetPairIntervals, n);
+		Arrays.sort(sorted);
+		long median=sorted[n/2];
+		return median>0?1000000/median:0;
+	}
+
+	/**
+	 * ACK or NAK on its way back to the sender
+	 */
+	static class Feedback {
+		long ackNumber;
+		long roundTripTime;
+		long roundTripTimeVar;
+		long packetArrivalRate;
+		long estimatedLinkCapacity;
+		long oneWayDelay;
+		//non-null for a NAK
+		List<Integer> lossInfo;
+	}
+
+}
@@ -0,0 +1,24 @@
+package udt.sim;
+
+/**
+ * a simulated data packet
+ */
+class SimPacket {
+
+	final SimFlow flow;
+
+	final long sequenceNumber;
+
+	//virtual send time in microseconds
+	final long sendTime;
+
+	//time the packet entered the bottleneck queue
+	long enqueueTime;
+
+	public SimPacket(SimFlow flow, long sequenceNumber, long sendTime){
+		this.flow=flow;
+		this.sequenceNumber=sequenceNumber;
+		this.sendTime=sendTime;
+	}
+
+}
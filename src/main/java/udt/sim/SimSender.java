@@ -0,0 +1,24 @@
+package udt.sim;
+
+import udt.UDTSender;
+import udt.UDTSession;
+
+/**
+ * the sender of a simulated flow. It does not send anything, {@link SimFlow} moves
+ * the packets and reports them here, so the sender state read by the congestion
+ * control stays consistent.
+ */
+class SimSender extends UDTSender {
+
+	public SimSender(UDTSession session){
+		super(session);
+	}
+
+	/**
+	 * a new data packet was put on the simulated link
+	 */
+	void onSent(long sequenceNumber){
+		onPacketSentExternally(sequenceNumber);
+	}
+
+}
@@ -0,0 +1,76 @@
+package udt.sim;
+
+import java.net.InetAddress;
+
+import udt.UDTPacket;
+import udt.UDTSession;
+import udt.packets.DataPacket;
+import udt.packets.Destination;
+
+/**
+ * a session without an endpoint, it only hosts the congestion control
+ * of a simulated flow.<br/>
+ *
+ * The congestion control instance is created by {@link UDTSession} as usual,
+ * from the system property {@link UDTSession#CC_CLASS}. It reads the
+ * simulator's virtual time via {@link #getCurrentTime()}.
+ */
+class SimSession extends UDTSession {
+
+	private final Simulator sim;
+
+	public SimSession(String description, Simulator sim, int flowWindowSize){
+		super(description, new Destination(InetAddress.getLoopbackAddress(), 0), null);
+		this.sim=sim;
+		this.flowWindowSize=flowWindowSize;
+		//no real packets are sent (see SimSender), so the senders' timer threads are not needed
+		sender.stop();
+		sender=new SimSender(this);
+		sender.stop();
+		setState(ready);
+	}
+
+	@Override
+	public SimSender getSender() {
+		return (SimSender)sender;
+	}
+
+	@Override
+	public long getCurrentTime() {
+		return sim.now();
+	}
+
+	@Override
+	public void received(UDTPacket packet, Destination peer) {}
+
+	@Override
+	public void setState(int state) {
+		this.state=state;
+	}
+
+	@Override
+	public boolean onSessionDataRequest() {
+		return false;
+	}
+
+	@Override
+	public void onSessionPrepare() {}
+
+	@Override
+	public void onShutdown() {}
+
+	@Override
+	public void onSessionReady() {}
+
+	@Override
+	public void onSessionEnd() {}
+
+	@Override
+	public boolean onDataReceive(DataPacket packet) {
+		return false;
+	}
+
+	@Override
+	public void onSendEmpty() {}
+
+}
@@ -0,0 +1,247 @@
+package udt.sim;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.UDPEndPoint;
+import udt.UDTCongestionControl;
+
+/**
+ * discrete event simulator for congestion control algorithms.<br/>
+ *
+ * One or more bulk flows, each with its own {@link udt.CongestionControl}, share a
+ * bottleneck link with a configurable bandwidth, round trip time, buffer size and
+ * random loss. The simulation runs in virtual time (the sessions hosting the
+ * congestion control return it from {@link udt.UDTSession#getCurrentTime()}), so a minute of traffic takes
+ * seconds to evaluate.<br/>
+ *
+ * Usage: java -cp .. udt.sim.Simulator [options] [cc class ...]<br/>
+ * The congestion control classes are assigned to the flows round robin.
+ */
+public class Simulator {
+
+	/**
+	 * an event, to be run at the given virtual time
+	 */
+	static abstract class Event implements Comparable<Event> {
+		long time;
+		//for events at the same time, keep the scheduling order
+		long order;
+
+		abstract void run();
+
+		public int compareTo(Event o){
+			if(time!=o.time)return time<o.time?-1:1;
+			return order<o.order?-1:(order==o.order?0:1);
+		}
+	}
+
+	private final PriorityQueue<Event> events=new PriorityQueue<Event>();
+
+	//virtual time in microseconds
+	private long now=0;
+
+	private long eventCounter=0;
+
+	final Random random;
+
+	public Simulator(long seed){
+		random=new Random(seed);
+	}
+
+	/**
+	 * the current virtual time in microseconds
+	 */
+	public long now(){
+		return now;
+	}
+
+	void schedule(Event event, long time){
+		event.time=time;
+		event.order=eventCounter++;
+		events.add(event);
+	}
+
+	/**
+	 * process events up to the given virtual time (microseconds)
+	 */
+	public void run(long endTime){
+		while(!events.isEmpty() && events.peek().time<=endTime){
+			Event e=events.poll();
+			now=e.time;
+			e.run();
+		}
+		now=endTime;
+	}
+
+	/* options */
+	private static double bandwidth=100;
+	private static double rtt=50;
+	private static int buffer=-1;
+	private static double loss=0;
+	private static int numberOfFlows=-1;
+	private static double duration=30;
+	private static double stagger=0;
+	private static int window=-1;
+	private static int packetSize=UDPEndPoint.DATAGRAM_SIZE;
+	private static long seed=1;
+	private static double reportInterval=0;
+
+	public static void main(String[] fullArgs){
+		String[] args=parseOptions(fullArgs);
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		List<String>classes=new ArrayList<String>();
+		for(String arg: args)classes.add(arg);
+		if(classes.isEmpty())classes.add(UDTCongestionControl.class.getName());
+		if(numberOfFlows<0)numberOfFlows=classes.size();
+
+		//link rate in packets per second and propagation delay
+		double packetRate=bandwidth*1000000/8/packetSize;
+		long propagationRTT=(long)(rtt*1000);
+		int bdp=(int)Math.ceil(packetRate*propagationRTT/1000000);
+		if(buffer<0)buffer=Math.max(bdp, 16);
+		if(window<0)window=Math.max(256, 4*bdp);
+
+		final Simulator sim=new Simulator(seed);
+		final Bottleneck link=new Bottleneck(sim, 1000000/packetRate, buffer, loss, propagationRTT/2);
+		final List<SimFlow>flows=new ArrayList<SimFlow>();
+		for(int i=0;i<numberOfFlows;i++){
+			long start=(long)(i*stagger*1000000);
+			flows.add(new SimFlow(i, classes.get(i%classes.size()), sim, link, propagationRTT, window, packetSize, start));
+		}
+
+		System.out.println("Bottleneck "+bandwidth+" Mbit/s, RTT "+rtt+" ms (BDP "+bdp+" packets), buffer "
+				+buffer+" packets, loss "+loss+", packet size "+packetSize+" bytes, flow window "+window);
+
+		if(reportInterval>0){
+			final long interval=(long)(reportInterval*1000000);
+			sim.schedule(new Event(){
+				final long[] lastDelivered=new long[flows.size()];
+				@Override
+				void run(){
+					StringBuilder sb=new StringBuilder();
+					sb.append(String.format("%8.2f s  queue %5d", sim.now()/1000000.0, link.getQueueLength()));
+					for(SimFlow f: flows){
+						double mbit=(f.delivered-lastDelivered[f.id])*packetSize*8.0/interval;
+						lastDelivered[f.id]=f.delivered;
+						sb.append(String.format("  %8.2f", mbit));
+					}
+					System.out.println(sb);
+					sim.schedule(this, sim.now()+interval);
+				}
+			}, interval);
+		}
+
+		long end=(long)(duration*1000000);
+		long started=System.currentTimeMillis();
+		sim.run(end);
+		for(SimFlow f: flows)f.stop();
+		long wallTime=System.currentTimeMillis()-started;
+
+		NumberFormat format=NumberFormat.getNumberInstance();
+		format.setMaximumFractionDigits(2);
+		System.out.println();
+		System.out.format("%4s %-28s %9s %12s %10s %10s %8s %8s %8s%n", "flow", "CC", "start[s]", "Mbit/s", "sent", "retrans.", "drops", "NAKs", "EXP");
+		double[] throughput=new double[flows.size()];
+		double total=0;
+		for(SimFlow f: flows){
+			String name=f.getCongestionControl().getClass().getName();
+			name=name.substring(name.lastIndexOf('.')+1);
+			double active=(end-f.startTime)/1000000.0;
+			throughput[f.id]=active>0?f.delivered*packetSize*8/active/1000000:0;
+			total+=f.delivered*packetSize*8/duration/1000000;
+			System.out.format("%4d %-28s %9.2f %12.2f %10d %10d %8d %8d %8d%n", f.id, name, f.startTime/1000000.0,
+					throughput[f.id], f.sent, f.retransmitted, f.drops, f.nakReceived, f.timeouts);
+		}
+		System.out.println();
+		System.out.println("Link utilization: "+format.format(100*total/bandwidth)+" %");
+		System.out.println("Queue delay: mean "+format.format(link.getMeanQueueDelay()/1000)+" ms, max "
+				+format.format(link.getMaxQueueDelay()/1000.0)+" ms");
+		long sent=0;
+		for(SimFlow f: flows)sent+=f.sent;
+		System.out.println("Loss: "+link.getOverflowDrops()+" overflow, "+link.getRandomDrops()+" random ("
+				+format.format(sent>0?100.0*(link.getOverflowDrops()+link.getRandomDrops())/sent:0)+" %)");
+		System.out.println("Jain fairness index: "+format.format(jainIndex(throughput)));
+		System.out.println("Simulated "+duration+" s in "+wallTime+" ms");
+	}
+
+	/**
+	 * Jain's fairness index (sum x)^2/(n * sum x^2), 1 if all flows get the same share
+	 */
+	static double jainIndex(double[] x){
+		double sum=0, sumSquares=0;
+		for(double v: x){
+			sum+=v;
+			sumSquares+=v*v;
+		}
+		return sumSquares>0?sum*sum/(x.length*sumSquares):0;
+	}
+
+	protected static String[] parseOptions(String[] args){
+		List<String>newArgs=new ArrayList<String>();
+		for(String arg: args){
+			if(arg.startsWith("--bandwidth=")){
+				bandwidth=Double.parseDouble(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--rtt=")){
+				rtt=Double.parseDouble(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--buffer=")){
+				buffer=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--loss=")){
+				loss=Double.parseDouble(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--flows=")){
+				numberOfFlows=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--duration=")){
+				duration=Double.parseDouble(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--stagger=")){
+				stagger=Double.parseDouble(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--window=")){
+				window=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--packetSize=")){
+				packetSize=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--seed=")){
+				seed=Long.parseLong(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--report=")){
+				reportInterval=Double.parseDouble(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("-")){
+				usage();
+				System.exit(1);
+			}
+			else{
+				newArgs.add(arg);
+			}
+		}
+		return newArgs.toArray(new String[newArgs.size()]);
+	}
+
+	public static void usage(){
+		System.out.println("Usage: java -cp .. udt.sim.Simulator [options] [cc class ...]");
+		System.out.println("  --bandwidth=Mbit/s   bottleneck bandwidth (default 100)");
+		System.out.println("  --rtt=ms             round trip propagation delay (default 50)");
+		System.out.println("  --buffer=packets     bottleneck queue size (default one BDP)");
+		System.out.println("  --loss=p             random loss probability (default 0)");
+		System.out.println("  --flows=n            number of flows (default one per cc class)");
+		System.out.println("  --duration=s         simulated time (default 30)");
+		System.out.println("  --stagger=s          start flow i at i*stagger (default 0)");
+		System.out.println("  --window=packets     flow window size (default max(256, 4*BDP))");
+		System.out.println("  --packetSize=bytes   packet size (default "+UDPEndPoint.DATAGRAM_SIZE+")");
+		System.out.println("  --seed=n             random seed (default 1)");
+		System.out.println("  --report=s           print per-flow throughput every s seconds");
+	}
+
+}
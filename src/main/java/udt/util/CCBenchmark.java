@@ -0,0 +1,228 @@
+package udt.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.AppData;
+import udt.ClientSession;
+import udt.ServerSession;
+import udt.UDPEndPoint;
+import udt.UDTCongestionControl;
+import udt.UDTReceiver;
+import udt.UDTSession;
+import udt.cc.CUBIC;
+import udt.packets.DataPacket;
+import udt.packets.Destination;
+
+/**
+ * in-process benchmark for congestion control algorithms.<br/>
+ *
+ * For each congestion control class, a server and a client endpoint are created
+ * in this JVM, and a fixed amount of data is sent over the loopback interface.
+ * Optionally every n'th data packet is dropped by the receiver to emulate a lossy link.<br/>
+ *
+ * Usage: java -cp .. udt.util.CCBenchmark [--size=MB] [--drop=n] [--port=port] [--timeout=seconds] [cc class ...]
+ */
+public class CCBenchmark {
+
+	private static long size=8*1024*1024;
+
+	private static int port=18009;
+
+	private static int timeout=120;
+
+	private final static int packetSize=1024;
+
+	public static void main(String[] fullArgs) throws Exception{
+		String[] args=parseOptions(fullArgs);
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		List<String>classes=new ArrayList<String>();
+		for(String arg: args)classes.add(arg);
+		if(classes.isEmpty()){
+			classes.add(UDTCongestionControl.class.getName());
+			classes.add(CUBIC.class.getName());
+		}
+		List<String>results=new ArrayList<String>();
+		//each run uses its own server port, the previous endpoint may not have released it yet
+		for(int i=0;i<classes.size();i++){
+			results.add(run(classes.get(i), port+i));
+		}
+		System.out.println();
+		System.out.format("%-28s %10s %10s %10s %10s %10s%n", "CC", "time[s]", "MB/sec", "sent", "retrans.", "NAK rcvd");
+		for(String r: results)System.out.println(r);
+		System.exit(0);
+	}
+
+	/**
+	 * run a single transfer using the given congestion control class and server port
+	 * @return a formatted line with the results
+	 */
+	static String run(String ccClass, final int port)throws Exception{
+		System.setProperty(UDTSession.CC_CLASS, ccClass);
+		final CountDownLatch done=new CountDownLatch(1);
+		final UDTSession[] server=new UDTSession[1];
+
+		UDPEndPoint serverEndPoint=new UDPEndPoint(InetAddress.getLoopbackAddress(), port){
+			@Override
+			public UDTSession onSessionCreate(Destination peer, UDPEndPoint endPoint)throws SocketException{
+				server[0]=new Sender(peer, endPoint);
+				return server[0];
+			}
+		};
+		UDPEndPoint clientEndPoint=new UDPEndPoint(InetAddress.getLoopbackAddress()){
+			@Override
+			public UDTSession onSessionCreate(Destination peer, UDPEndPoint endPoint)throws IOException{
+				ClientSession session=new Receiver(this, peer, done);
+				session.connect();
+				return session;
+			}
+		};
+		long start=System.currentTimeMillis();
+		clientEndPoint.createClientSession(new Destination(InetAddress.getLoopbackAddress(), port));
+		boolean completed=done.await(timeout, TimeUnit.SECONDS);
+		double time=(System.currentTimeMillis()-start)/1000.0;
+		serverEndPoint.stop();
+		clientEndPoint.stop();
+		if(server[0]!=null)server[0].getSender().stop();
+
+		String name=ccClass.substring(ccClass.lastIndexOf('.')+1);
+		if(!completed)return String.format("%-28s %10s", name, "timeout");
+		UDTStatistics stats=server[0].getStatistics();
+		return String.format("%-28s %10.2f %10.2f %10d %10d %10d", name, time, size/1024.0/1024.0/time,
+				stats.getNumberOfSentDataPackets(), stats.getNumberOfRetransmittedDataPackets(),
+				stats.getNumberOfNAKReceived());
+	}
+
+	/**
+	 * server side, sends the data
+	 */
+	static class Sender extends ServerSession {
+
+		private final byte[] buf=new byte[packetSize];
+
+		private final long numberPackets=size/packetSize;
+
+		private long sendCounter=0;
+
+		public Sender(Destination peer, UDPEndPoint endPoint)throws SocketException{
+			super(peer, endPoint);
+		}
+
+		@Override
+		public void onSessionPrepare() {
+			setTransferSize(numberPackets*packetSize);
+		}
+
+		@Override
+		public void onSessionReady() {
+			startSender();
+		}
+
+		@Override
+		public boolean onSessionDataRequest() {
+			while(sendCounter<numberPackets){
+				if(write(buf, packetSize)==0)return true;
+				sendCounter++;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean onDataReceive(DataPacket packet) {
+			return false;
+		}
+
+		@Override
+		public void onShutdown() {}
+
+		@Override
+		public void onSessionEnd() {}
+
+		@Override
+		public void onSendEmpty() {}
+	}
+
+	/**
+	 * client side, receives the data and signals completion
+	 */
+	static class Receiver extends ClientSession {
+
+		private final CountDownLatch done;
+
+		private long received=0;
+
+		public Receiver(UDPEndPoint endPoint, Destination dest, CountDownLatch done)throws SocketException{
+			super(endPoint, dest);
+			this.done=done;
+		}
+
+		@Override
+		public boolean onDataReceive(DataPacket packet) {
+			AppData data;
+			while((data=receiveBuffer.poll())!=null){
+				received+=data.data.length;
+			}
+			if(received>=getTransferSize() && getTransferSize()>0){
+				done.countDown();
+			}
+			return true;
+		}
+
+		@Override
+		public void onSessionReady() {}
+
+		@Override
+		public void onSessionPrepare() {}
+
+		@Override
+		public boolean onSessionDataRequest() {
+			return false;
+		}
+
+		@Override
+		public void onShutdown() {}
+
+		@Override
+		public void onSessionEnd() {}
+
+		@Override
+		public void onSendEmpty() {}
+	}
+
+	protected static String[] parseOptions(String[] args){
+		List<String>newArgs=new ArrayList<String>();
+		for(String arg: args){
+			if(arg.startsWith("--size=")){
+				size=Long.parseLong(arg.split("=")[1])*1024*1024;
+			}
+			else if(arg.startsWith("--drop=")){
+				UDTReceiver.dropRate=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--port=")){
+				port=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--timeout=")){
+				timeout=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("-")){
+				usage();
+				System.exit(1);
+			}
+			else{
+				newArgs.add(arg);
+			}
+		}
+		return newArgs.toArray(new String[newArgs.size()]);
+	}
+
+	public static void usage(){
+		System.out.println("Usage: java -cp .. udt.util.CCBenchmark [--size=MB] [--drop=n] [--port=port] [--timeout=seconds] [cc class ...]");
+	}
+}
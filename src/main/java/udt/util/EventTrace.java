@@ -0,0 +1,185 @@
+package udt.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * per-session ring buffer of protocol events (send, retransmit, ACK, NAK, ACK2, EXP,
+ * congestion control changes) with microsecond time stamps.<br/>
+ *
+ * Tracing is enabled with the system property <code>udt.trace.enabled=true</code>,
+ * the ring size (number of events, rounded up to a power of two) is set with
+ * <code>udt.trace.size</code> (default 65536, at most 2^24). The ring is allocated once, recording an
+ * event writes four longs and does not allocate or lock. When the ring is full, the oldest
+ * events are overwritten.<br/>
+ *
+ * Use {@link #dump(File)} to write the events to a file, and {@link TraceDecoder} to
+ * convert a dump to CSV. Events recorded while dumping may show up torn.
+ */
+public class EventTrace {
+
+	public static final String ENABLED="udt.trace.enabled";
+	public static final String SIZE="udt.trace.size";
+
+	//file format
+	static final int MAGIC=0x55445454;//"UDTT"
+	static final int VERSION=1;
+
+	/* event types, and their two arguments */
+
+	//data packet sent: sequence number, unacknowledged packets
+	public static final int SEND=1;
+	//data packet re-sent: sequence number, unacknowledged packets
+	public static final int RETRANSMIT=2;
+	//sending failed: sequence number, 1 for a retransmission
+	public static final int SEND_FAILED=3;
+	//no application data to send: unacknowledged packets, 1 if the sender stops
+	public static final int NO_DATA=4;
+	//ACK received: ack number, RTT
+	public static final int ACK_RECEIVED=5;
+	//light ACK received: ack number
+	public static final int LIGHT_ACK_RECEIVED=6;
+	//NAK received: first lost sequence number, number of lost packets
+	public static final int NAK_RECEIVED=7;
+	//ACK sent: ack number, ACK sequence number
+	public static final int ACK_SENT=8;
+	//light ACK sent: ack number, ACK sequence number
+	public static final int LIGHT_ACK_SENT=9;
+	//NAK sent: first lost sequence number, number of lost packets
+	public static final int NAK_SENT=10;
+	//ACK2 sent: ACK sequence number, ack number
+	public static final int ACK2_SENT=11;
+	//ACK2 received: ACK sequence number, RTT sample
+	public static final int ACK2_RECEIVED=12;
+	//EXP timer expired: exp count, unacknowledged packets
+	public static final int EXP=13;
+	//congestion control change: CWND and send period (as raw double bits)
+	public static final int CC=14;
+	//received data packet dropped (receive buffer full): sequence number
+	public static final int DROP=15;
+
+	static final String[] NAMES={"", "SEND", "RETRANSMIT", "SEND_FAILED", "NO_DATA", "ACK_RECEIVED",
+		"LIGHT_ACK_RECEIVED", "NAK_RECEIVED", "ACK_SENT", "LIGHT_ACK_SENT", "NAK_SENT", "ACK2_SENT",
+		"ACK2_RECEIVED", "EXP", "CC", "DROP"};
+
+	private static final int ENTRY_SIZE=4;
+
+	//max. number of events, 512 MB per session
+	static final int MAX_SIZE=1<<24;
+
+	private final long socketID;
+
+	private final boolean enabled;
+
+	private final int mask;
+
+	//time, type, argument 1, argument 2
+	private final long[] ring;
+
+	//total number of events recorded
+	private final AtomicLong index=new AtomicLong(0);
+
+	/**
+	 * create a trace for the given session, configured from the system properties
+	 */
+	public EventTrace(long socketID){
+		this(socketID, Boolean.getBoolean(ENABLED), Integer.getInteger(SIZE, 65536));
+	}
+
+	public EventTrace(long socketID, boolean enabled, int size){
+		this.socketID=socketID;
+		this.enabled=enabled;
+		if(enabled){
+			int capacity=Integer.highestOneBit(Math.min(Math.max(size, 2), MAX_SIZE)-1)<<1;
+			mask=capacity-1;
+			ring=new long[capacity*ENTRY_SIZE];
+		}
+		else{
+			mask=0;
+			ring=null;
+		}
+	}
+
+	public boolean isEnabled(){
+		return enabled;
+	}
+
+	/**
+	 * record an event
+	 * @param type - the event type, see the constants
+	 * @param arg1 - first argument
+	 * @param arg2 - second argument
+	 */
+	public void record(int type, long arg1, long arg2){
+		if(!enabled)return;
+		long time=Util.getCurrentTime();
+		int pos=(int)(index.getAndIncrement()&mask)*ENTRY_SIZE;
+		ring[pos]=time;
+		ring[pos+1]=type;
+		ring[pos+2]=arg1;
+		ring[pos+3]=arg2;
+	}
+
+	/**
+	 * record a congestion control change
+	 */
+	public void recordCC(double congestionWindowSize, double sendPeriod){
+		if(!enabled)return;
+		record(CC, Double.doubleToRawLongBits(congestionWindowSize), Double.doubleToRawLongBits(sendPeriod));
+	}
+
+	/**
+	 * the total number of events recorded (including overwritten ones)
+	 */
+	public long getNumberOfEvents(){
+		return index.get();
+	}
+
+	/**
+	 * the number of events the ring can hold
+	 */
+	public int getCapacity(){
+		return enabled?mask+1:0;
+	}
+
+	/**
+	 * write the events in the ring, oldest first
+	 */
+	public void dump(File file)throws IOException{
+		OutputStream os=new BufferedOutputStream(new FileOutputStream(file));
+		try{
+			dump(os);
+		}finally{
+			os.close();
+		}
+	}
+
+	/**
+	 * write the events in the ring, oldest first. <br/>
+	 * Format (big endian): int magic, int version, long socket ID, int number of events,
+	 * then per event: long time (microseconds), int type, long argument 1, long argument 2
+	 */
+	public void dump(OutputStream os)throws IOException{
+		DataOutputStream out=new DataOutputStream(os);
+		long end=index.get();
+		long start=enabled?Math.max(0, end-mask-1):end;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(socketID);
+		out.writeInt((int)(end-start));
+		for(long i=start;i<end;i++){
+			int pos=(int)(i&mask)*ENTRY_SIZE;
+			out.writeLong(ring[pos]);
+			out.writeInt((int)ring[pos+1]);
+			out.writeLong(ring[pos+2]);
+			out.writeLong(ring[pos+3]);
+		}
+		out.flush();
+	}
+
+}
@@ -0,0 +1,174 @@
+package udt.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * fixed-memory histogram of (timing) values, e.g. microseconds, in the style of HdrHistogram.<br/>
+ *
+ * Values below 2^precisionBits are counted exactly. Larger values are counted in
+ * log-linear buckets: each power of two is split into 2^(precisionBits-1) buckets, so the
+ * relative error of a reported percentile is below 2^-(precisionBits-1). Values above the
+ * highest trackable value are counted in the last bucket (min and max are kept exactly).<br/>
+ *
+ * Recording does not allocate or lock. Values may be recorded from several threads, and
+ * read concurrently, in which case a readout may miss the updates in progress.
+ */
+public class Histogram {
+
+	private final String name;
+
+	private final int precisionBits;
+
+	//number of buckets per power of two (above the exact range)
+	private final int subBucketHalfCount;
+
+	private final long highestTrackableValue;
+
+	private final AtomicLongArray counts;
+
+	private final AtomicLong totalCount=new AtomicLong();
+	private final AtomicLong sum=new AtomicLong();
+	private final AtomicLong min=new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max=new AtomicLong(0);
+
+	/**
+	 * create a histogram for values up to 2^26 (67 seconds, if counting microseconds) with a
+	 * relative error below 1.6%
+	 * @param name
+	 */
+	public Histogram(String name){
+		this(name, 1L<<26, 7);
+	}
+
+	/**
+	 * @param name
+	 * @param highestTrackableValue - largest value to be counted exactly
+	 * @param precisionBits - between 2 and 16
+	 */
+	public Histogram(String name, long highestTrackableValue, int precisionBits){
+		if(precisionBits<2 || precisionBits>16){
+			throw new IllegalArgumentException("precisionBits must be between 2 and 16");
+		}
+		if(highestTrackableValue<1){
+			throw new IllegalArgumentException("highestTrackableValue must be positive");
+		}
+		this.name=name;
+		this.precisionBits=precisionBits;
+		this.subBucketHalfCount=1<<(precisionBits-1);
+		this.highestTrackableValue=highestTrackableValue;
+		this.counts=new AtomicLongArray(indexOf(highestTrackableValue)+1);
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * record a value, negative values are counted as zero
+	 */
+	public void recordValue(long value){
+		if(value<0)value=0;
+		counts.incrementAndGet(indexOf(Math.min(value, highestTrackableValue)));
+		totalCount.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while(value<(m=min.get())){
+			if(min.compareAndSet(m, value))break;
+		}
+		while(value>(m=max.get())){
+			if(max.compareAndSet(m, value))break;
+		}
+	}
+
+	/**
+	 * record the time elapsed since the given start time
+	 * @param start - start time in microseconds, see {@link Util#getCurrentTime()}
+	 */
+	public void recordSince(long start){
+		recordValue(Util.getCurrentTime()-start);
+	}
+
+	public long getTotalCount(){
+		return totalCount.get();
+	}
+
+	public long getMin(){
+		return totalCount.get()>0?min.get():0;
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	public double getMean(){
+		long n=totalCount.get();
+		return n>0?(double)sum.get()/n:0;
+	}
+
+	/**
+	 * get the value at the given percentile, i.e. the largest value (within the precision of
+	 * this histogram) such that the given percentage of the recorded values is smaller or equal
+	 * @param percentile - between 0 and 100
+	 */
+	public long getValueAtPercentile(double percentile){
+		long total=0;
+		for(int i=0;i<counts.length();i++){
+			total+=counts.get(i);
+		}
+		if(total==0)return 0;
+		long target=Math.max(1, (long)Math.ceil(Math.min(100, percentile)/100*total));
+		long cumulative=0;
+		for(int i=0;i<counts.length();i++){
+			cumulative+=counts.get(i);
+			if(cumulative>=target){
+				return Math.min(highestEquivalentValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * clear all counts
+	 */
+	public void reset(){
+		for(int i=0;i<counts.length();i++){
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	private int indexOf(long value){
+		//bucket: the power of two above the exact range, sub bucket: position within it
+		int bucket=Math.max(0, 63-Long.numberOfLeadingZeros(value)-(precisionBits-1));
+		int subBucket=(int)(value>>>bucket);
+		return bucket*subBucketHalfCount+subBucket;
+	}
+
+	private long highestEquivalentValue(int index){
+		int bucket=Math.max(0, index/subBucketHalfCount-1);
+		long subBucket=index-bucket*subBucketHalfCount;
+		return ((subBucket+1)<<bucket)-1;
+	}
+
+	/**
+	 * e.g. "SENDER: Datagram send time: n=1234 min=3 p50=12 p99=80 p99.9=310 max=1203 mean=14.5"
+	 */
+	public String toString(){
+		StringBuilder sb=new StringBuilder();
+		sb.append(name).append(": n=").append(getTotalCount());
+		if(getTotalCount()>0){
+			sb.append(" min=").append(getMin());
+			sb.append(" p50=").append(getValueAtPercentile(50));
+			sb.append(" p99=").append(getValueAtPercentile(99));
+			sb.append(" p99.9=").append(getValueAtPercentile(99.9));
+			sb.append(" max=").append(getMax());
+			sb.append(" mean=").append(String.format("%.1f", getMean()));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,166 @@
+package udt.util;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.ServerSession;
+import udt.UDPEndPoint;
+import udt.UDTPacket;
+import udt.UDTSession;
+import udt.packets.DataPacket;
+import udt.packets.Destination;
+import udt.packets.KeepAlive;
+
+/**
+ * in-process round trip latency benchmark for the receive modes of the {@link UDPEndPoint}.<br/>
+ *
+ * For each mode (selector, busy polling), a server endpoint with an echo session is created.
+ * A plain UDP client sends small UDT control packets to the session, which sends each one back
+ * as soon as the endpoint has dispatched it, and the client measures the round trip time.
+ * The client is the same in both modes, so the difference is the receive path of the endpoint.<br/>
+ *
+ * Usage: java -cp .. udt.util.LatencyBenchmark [--count=n] [--warmup=n] [--port=port]
+ */
+public class LatencyBenchmark {
+
+	private static int count=100000;
+
+	private static int warmup=20000;
+
+	private static int port=18019;
+
+	public static void main(String[] fullArgs) throws Exception{
+		parseOptions(fullArgs);
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		List<String>results=new ArrayList<String>();
+		results.add(run("selector", false, port));
+		results.add(run("busy poll", true, port+1));
+		System.out.println();
+		System.out.format("%-12s %10s %10s %10s %10s %10s %8s%n", "mode", "p50[us]", "p99[us]", "p99.9[us]", "max[us]", "mean[us]", "lost");
+		for(String r: results)System.out.println(r);
+		System.exit(0);
+	}
+
+	/**
+	 * measure the round trip times with the given endpoint mode
+	 * @return a formatted line with the results
+	 */
+	static String run(String name, boolean busyPoll, int port)throws Exception{
+		System.setProperty(UDPEndPoint.BUSY_POLL, String.valueOf(busyPoll));
+		InetAddress loopback=InetAddress.getLoopbackAddress();
+		UDPEndPoint server=new UDPEndPoint(loopback, port){
+			@Override
+			public UDTSession onSessionCreate(Destination peer, UDPEndPoint endPoint){
+				return null;
+			}
+		};
+		DatagramSocket client=new DatagramSocket(new InetSocketAddress(loopback, 0));
+		client.setSoTimeout(1000);
+		Echo echo=new Echo(new Destination(loopback, client.getLocalPort()), server);
+		server.addSession(echo.getSocketID(), echo);
+
+		KeepAlive ping=new KeepAlive();
+		ping.setDestinationID(echo.getSocketID());
+		byte[]data=ping.getEncoded();
+		DatagramPacket request=new DatagramPacket(data, data.length, new InetSocketAddress(loopback, port));
+		DatagramPacket response=new DatagramPacket(new byte[UDPEndPoint.DATAGRAM_SIZE], UDPEndPoint.DATAGRAM_SIZE);
+
+		Histogram rtt=new Histogram(name);
+		int lost=0;
+		try{
+			for(int i=0;i<warmup+count;i++){
+				long start=System.nanoTime();
+				client.send(request);
+				try{
+					client.receive(response);
+				}catch(SocketTimeoutException ste){
+					lost++;
+					continue;
+				}
+				if(i>=warmup)rtt.recordValue((System.nanoTime()-start)/1000);
+			}
+		}finally{
+			client.close();
+			server.stop();
+		}
+		return String.format("%-12s %10d %10d %10d %10d %10.1f %8d", name, rtt.getValueAtPercentile(50),
+				rtt.getValueAtPercentile(99), rtt.getValueAtPercentile(99.9), rtt.getMax(), rtt.getMean(), lost);
+	}
+
+	/**
+	 * sends every packet back to the peer right away
+	 */
+	static class Echo extends ServerSession {
+
+		public Echo(Destination peer, UDPEndPoint endPoint)throws SocketException{
+			super(peer, endPoint);
+		}
+
+		@Override
+		public void received(UDTPacket packet, Destination peer){
+			//null: timer check by the endpoint
+			if(packet==null)return;
+			try{
+				doSend(packet);
+			}catch(IOException ex){
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		public void onSessionPrepare() {}
+
+		@Override
+		public void onSessionReady() {}
+
+		@Override
+		public boolean onSessionDataRequest() {
+			return false;
+		}
+
+		@Override
+		public boolean onDataReceive(DataPacket packet) {
+			return false;
+		}
+
+		@Override
+		public void onShutdown() {}
+
+		@Override
+		public void onSessionEnd() {}
+
+		@Override
+		public void onSendEmpty() {}
+	}
+
+	protected static void parseOptions(String[] args){
+		for(String arg: args){
+			if(arg.startsWith("--count=")){
+				count=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--warmup=")){
+				warmup=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--port=")){
+				port=Integer.parseInt(arg.split("=")[1]);
+			}
+			else{
+				usage();
+				System.exit(1);
+			}
+		}
+	}
+
+	public static void usage(){
+		System.out.println("Usage: java -cp .. udt.util.LatencyBenchmark [--count=n] [--warmup=n] [--port=port]");
+	}
+}
@@ -10,7 +10,7 @@ public class MeanValue {
 
 	private double mean=0;
 	private double max=0;
-	private double min=0;
+	private double min=Double.MAX_VALUE;
 	
 	private int n=0;
 	
@@ -46,14 +46,14 @@ public class MeanValue {
 		mean=(mean*n+value)/(n+1);
 		n++;
 		max=Math.max(max, value);
-		min=Math.min(max, value);
+		min=Math.min(min, value);
 		
 		if(verbose &&  n % nValue == 0){
 			if(msg!=null)System.out.println(msg+" "+get());
 			else System.out.println(name+" "+get());
 			
 			max=0;
-			min=0;
+			min=Double.MAX_VALUE;
 		}
 	}
 	
@@ -66,12 +66,14 @@ public class MeanValue {
 	}
 	
 	public String get(){
-		return format.format(getMean())+" max="+format.format(max)+" min="+format.format(min);
+		return format.format(getMean())+" max="+format.format(max)+" min="+format.format(min<=max?min:0);
 	}
 	
 	public void clear(){
 		mean=0;
 		n=0;
+		max=0;
+		min=Double.MAX_VALUE;
 	}
 	
 	public void begin(){
@@ -0,0 +1,319 @@
+package udt.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * captures UDP datagrams into pcap files, for offline analysis with e.g. Wireshark or tshark.<br/>
+ *
+ * The datagrams are written with link type RAW and synthesized IP and UDP headers
+ * (with zero UDP checksum). Capturing is enabled by setting the system property
+ * <code>udt.pcap.dir</code> to an existing directory. Further properties:
+ * <ul>
+ * <li><code>udt.pcap.snapLength</code>: max. number of UDT bytes stored per datagram,
+ * e.g. 16 to capture only the UDT headers (default: 0, i.e. the complete datagram)</li>
+ * <li><code>udt.pcap.fileSize</code>: size of a file in MB before the next one is started (default 64)</li>
+ * <li><code>udt.pcap.files</code>: number of files to rotate through (default 4)</li>
+ * <li><code>udt.pcap.queueSize</code>: max. number of datagrams waiting to be written (default 8192)</li>
+ * </ul>
+ *
+ * Captured datagrams are copied and handed over through a bounded queue to a background thread,
+ * so capturing never blocks the caller. If the queue is full, datagrams are dropped (and counted).
+ * Closing does not block either: the background thread writes the remaining datagrams
+ * and closes the file.
+ */
+public class PcapWriter implements Runnable {
+
+	private static final Logger logger=Logger.getLogger(PcapWriter.class.getName());
+
+	public static final String DIR="udt.pcap.dir";
+	public static final String SNAP_LENGTH="udt.pcap.snapLength";
+	public static final String FILE_SIZE="udt.pcap.fileSize";
+	public static final String FILES="udt.pcap.files";
+	public static final String QUEUE_SIZE="udt.pcap.queueSize";
+
+	//file format
+	static final int MAGIC=0xa1b2c3d4;
+	static final int LINKTYPE_RAW=101;
+	private static final int MAX_SNAP_LENGTH=65535;
+
+	private static final int IPV4_HEADER=20;
+	private static final int IPV6_HEADER=40;
+	private static final int UDP_HEADER=8;
+
+	//wakes up the writer thread when closing
+	private static final Record END=new Record(0, null, null, new byte[0], 0);
+
+	private final File dir;
+
+	private final String name;
+
+	private final int snapLength;
+
+	private final long maxFileSize;
+
+	private final int maxFiles;
+
+	private final BlockingQueue<Record>queue;
+
+	private final AtomicLong captured=new AtomicLong(0);
+
+	private final AtomicLong dropped=new AtomicLong(0);
+
+	//difference between wall clock and Util.getCurrentTime() (microseconds)
+	private final long timeOffset;
+
+	private final Thread thread;
+
+	private volatile boolean stopped=false;
+
+	//writer thread state
+	private DataOutputStream out;
+	private File currentFile;
+	private int fileIndex=0;
+	private long fileSize;
+	private int ipID=0;
+
+	/**
+	 * create and start a writer configured from the system properties
+	 * @param name - prefix of the file names
+	 * @return the writer, or <code>null</code> if capturing is not enabled or not possible
+	 */
+	public static PcapWriter create(String name){
+		String dir=System.getProperty(DIR);
+		if(dir==null)return null;
+		try{
+			PcapWriter w=new PcapWriter(new File(dir), name, Integer.getInteger(SNAP_LENGTH, 0),
+					Integer.getInteger(FILE_SIZE, 64)*1024L*1024L, Integer.getInteger(FILES, 4),
+					Integer.getInteger(QUEUE_SIZE, 8192));
+			w.start();
+			return w;
+		}catch(IOException ex){
+			logger.log(Level.WARNING, "Can't capture datagrams to <"+dir+">", ex);
+			return null;
+		}
+	}
+
+	/**
+	 * @param dir - directory to write to
+	 * @param name - prefix of the file names, which are &lt;name&gt;-&lt;n&gt;.pcap
+	 * @param snapLength - max. number of UDP payload bytes to store, 0 for all
+	 * @param maxFileSize - size in bytes after which the next file is started
+	 * @param maxFiles - number of files to rotate through
+	 * @param capacity - max. number of datagrams waiting to be written
+	 * @throws IOException if the first file can't be opened
+	 */
+	public PcapWriter(File dir, String name, int snapLength, long maxFileSize, int maxFiles, int capacity)throws IOException{
+		this.dir=dir;
+		this.name=name;
+		this.snapLength=snapLength>0?Math.min(snapLength, MAX_SNAP_LENGTH):MAX_SNAP_LENGTH;
+		this.maxFileSize=Math.max(1024, maxFileSize);
+		this.maxFiles=Math.max(1, maxFiles);
+		this.queue=new ArrayBlockingQueue<Record>(Math.max(1, capacity));
+		this.timeOffset=System.currentTimeMillis()*1000-Util.getCurrentTime();
+		openFile();
+		thread=UDTThreadFactory.get().newThread(this);
+		thread.setName("PcapWriter-"+thread.getName());
+		thread.setDaemon(true);
+	}
+
+	public void start(){
+		thread.start();
+	}
+
+	/**
+	 * queue a datagram for writing. The data is copied (up to the snap length).
+	 * @param source - sender of the datagram
+	 * @param destination - receiver of the datagram
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return <code>false</code> if the datagram was dropped because the queue is full
+	 */
+	public boolean capture(InetSocketAddress source, InetSocketAddress destination, byte[]data, int offset, int length){
+		if(stopped || queue.remainingCapacity()==0){
+			dropped.incrementAndGet();
+			return false;
+		}
+		byte[]copy=new byte[Math.min(length, snapLength)];
+		System.arraycopy(data, offset, copy, 0, copy.length);
+		if(!queue.offer(new Record(Util.getCurrentTime(), source, destination, copy, length))){
+			dropped.incrementAndGet();
+			return false;
+		}
+		captured.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * the number of datagrams queued for writing
+	 */
+	public long getCaptured(){
+		return captured.get();
+	}
+
+	/**
+	 * the number of datagrams dropped because the writer could not keep up
+	 */
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	/**
+	 * stop accepting datagrams; the writer thread writes the remaining ones
+	 * and closes the file. Does not wait for that to happen.
+	 */
+	public void close(){
+		stopped=true;
+		//if the queue is full, the writer is busy and will see the stopped flag
+		queue.offer(END);
+		if(!thread.isAlive()){
+			//not started (or already done), nobody else closes the file
+			try{
+				out.close();
+			}catch(IOException ex){}
+		}
+	}
+
+	public void run(){
+		try{
+			while(true){
+				Record r=stopped?queue.poll():queue.take();
+				if(r==null)break;
+				if(r!=END){
+					write(r);
+				}
+				if(queue.isEmpty()){
+					out.flush();
+				}
+			}
+		}catch(InterruptedException ie){
+			//closing
+		}catch(IOException ex){
+			logger.log(Level.WARNING, "Can't write datagrams to <"+currentFile+">", ex);
+		}finally{
+			try{
+				out.close();
+			}catch(IOException ex){}
+			if(dropped.get()>0){
+				logger.info("Dropped "+dropped.get()+" datagrams for <"+name+">");
+			}
+		}
+	}
+
+	private void openFile()throws IOException{
+		currentFile=new File(dir, name+"-"+fileIndex+".pcap");
+		out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(currentFile), 65536));
+		out.writeInt(MAGIC);
+		out.writeShort(2);
+		out.writeShort(4);
+		out.writeInt(0);//time zone
+		out.writeInt(0);//time stamp accuracy
+		out.writeInt(snapLength+IPV6_HEADER+UDP_HEADER);
+		out.writeInt(LINKTYPE_RAW);
+		fileSize=24;
+	}
+
+	private void rotate()throws IOException{
+		out.close();
+		fileIndex=(fileIndex+1)%maxFiles;
+		openFile();
+	}
+
+	private void write(Record r)throws IOException{
+		if(fileSize>=maxFileSize){
+			rotate();
+		}
+		//IPv6 header only if both addresses are IPv6
+		boolean ipv6=r.source.getAddress() instanceof Inet6Address
+				&& r.destination.getAddress() instanceof Inet6Address;
+		int ipHeader=ipv6?IPV6_HEADER:IPV4_HEADER;
+		int udpLength=UDP_HEADER+r.length;
+		long time=r.time+timeOffset;
+		out.writeInt((int)(time/1000000));
+		out.writeInt((int)(time%1000000));
+		out.writeInt(ipHeader+UDP_HEADER+r.data.length);
+		out.writeInt(ipHeader+udpLength);
+		if(ipv6){
+			out.writeInt(0x60000000);
+			out.writeShort(udpLength);
+			out.writeByte(17);//UDP
+			out.writeByte(64);//hop limit
+			out.write(addressBytes(r.source, 16));
+			out.write(addressBytes(r.destination, 16));
+		}else{
+			byte[]src=addressBytes(r.source, 4);
+			byte[]dst=addressBytes(r.destination, 4);
+			int totalLength=Math.min(0xffff, IPV4_HEADER+udpLength);
+			int id=(ipID++)&0xffff;
+			out.writeShort(0x4500);
+			out.writeShort(totalLength);
+			out.writeShort(id);
+			out.writeShort(0x4000);//don't fragment
+			out.writeShort((64<<8)|17);//TTL, UDP
+			out.writeShort(ipv4Checksum(totalLength, id, src, dst));
+			out.write(src);
+			out.write(dst);
+		}
+		out.writeShort(r.source.getPort());
+		out.writeShort(r.destination.getPort());
+		out.writeShort(Math.min(0xffff, udpLength));
+		out.writeShort(0);//no checksum
+		out.write(r.data);
+		fileSize+=16+ipHeader+UDP_HEADER+r.data.length;
+	}
+
+	private static byte[]addressBytes(InetSocketAddress address, int length){
+		InetAddress a=address.getAddress();
+		byte[]b=a!=null?a.getAddress():null;
+		if(b!=null && b.length==length)return b;
+		byte[]res=new byte[length];
+		if(b!=null && b.length==4 && length==16){
+			//IPv4 mapped IPv6 address
+			res[10]=(byte)0xff;
+			res[11]=(byte)0xff;
+			System.arraycopy(b, 0, res, 12, 4);
+		}
+		return res;
+	}
+
+	private static int ipv4Checksum(int totalLength, int id, byte[]src, byte[]dst){
+		long sum=0x4500+totalLength+id+0x4000+((64<<8)|17);
+		for(int i=0;i<4;i+=2){
+			sum+=((src[i]&0xff)<<8)|(src[i+1]&0xff);
+			sum+=((dst[i]&0xff)<<8)|(dst[i+1]&0xff);
+		}
+		while((sum>>16)!=0){
+			sum=(sum&0xffff)+(sum>>16);
+		}
+		return (int)(~sum&0xffff);
+	}
+
+	private static class Record {
+		final long time;
+		final InetSocketAddress source;
+		final InetSocketAddress destination;
+		final byte[]data;
+		final int length;
+
+		Record(long time, InetSocketAddress source, InetSocketAddress destination, byte[]data, int length){
+			this.time=time;
+			this.source=source;
+			this.destination=destination;
+			this.data=data;
+			this.length=length;
+		}
+	}
+
+}
@@ -30,12 +30,38 @@ public class ReceiveBuffer {
 	//the size of the buffer
 	private final int size;
 
+	//records the time chunks spend in the buffer (may be null)
+	private final Histogram deliveryLatency;
+
 	public ReceiveBuffer(int size){
+		this(size, null);
+	}
+
+	/**
+	 * @param size - the number of chunks the buffer can hold
+	 * @param deliveryLatency - histogram for the time from arrival until a chunk is read, may be <code>null</code>
+	 */
+	public ReceiveBuffer(int size, Histogram deliveryLatency){
 		this.size=size;
+		this.deliveryLatency=deliveryLatency;
 		this.buffer=new AppData[size];
 		highestReadSequenceNumber=SequenceNumber.decrement(initialSequenceNumber);
 	}
 
+	/**
+	 * the number of chunks the buffer can hold
+	 */
+	public int getSize(){
+		return size;
+	}
+
+	/**
+	 * the number of chunks waiting to be read
+	 */
+	public int getNumValidChunks(){
+		return numValidChunks.get();
+	}
+
 	public boolean offer(AppData data){
 		if(numValidChunks.get()==size) {
 			return false;
@@ -69,6 +95,7 @@ public class ReceiveBuffer {
 				if(readPosition==size)readPosition=0;
 				numValidChunks.decrementAndGet();
 				highestReadSequenceNumber=thisSeq;
+				if(deliveryLatency!=null)deliveryLatency.recordSince(r.getArrivalTime());
 			}
 			else return null;
 		}
@@ -0,0 +1,126 @@
+package udt.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * streams {@link StatisticsHistoryEntry}s to a file.<br/>
+ *
+ * Entries are handed over through a bounded queue and written by a background thread,
+ * so the caller never blocks on I/O. If the writer falls behind and the queue is full,
+ * new entries are dropped (and counted). The file is flushed whenever the queue runs empty.
+ * Closing does not block either: the background thread writes the remaining entries
+ * and closes the file.
+ */
+public class StatisticsHistoryWriter implements Runnable {
+
+	private static final Logger logger=Logger.getLogger(StatisticsHistoryWriter.class.getName());
+
+	//wakes up the writer thread when closing
+	private static final StatisticsHistoryEntry END=new StatisticsHistoryEntry();
+
+	private final File file;
+
+	private final Writer out;
+
+	private final BlockingQueue<StatisticsHistoryEntry>queue;
+
+	private final AtomicLong dropped=new AtomicLong(0);
+
+	private final Thread thread;
+
+	private volatile boolean stopped=false;
+
+	/**
+	 * @param file - the file to write to
+	 * @param capacity - max. number of entries waiting to be written
+	 * @throws IOException if the file can't be opened
+	 */
+	public StatisticsHistoryWriter(File file, int capacity)throws IOException{
+		this.file=file;
+		this.out=new BufferedWriter(new FileWriter(file));
+		this.queue=new ArrayBlockingQueue<StatisticsHistoryEntry>(Math.max(1, capacity));
+		thread=UDTThreadFactory.get().newThread(this);
+		thread.setName("StatisticsWriter-"+thread.getName());
+		thread.setDaemon(true);
+	}
+
+	public void start(){
+		thread.start();
+	}
+
+	/**
+	 * queue an entry for writing
+	 * @return <code>false</code> if the entry was dropped because the queue is full
+	 */
+	public boolean offer(StatisticsHistoryEntry entry){
+		if(stopped || !queue.offer(entry)){
+			dropped.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * the number of entries dropped because the writer could not keep up
+	 */
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * stop accepting entries; the writer thread writes the remaining ones
+	 * and closes the file. Does not wait for that to happen.
+	 */
+	public void close(){
+		stopped=true;
+		//if the queue is full, the writer is busy and will see the stopped flag
+		queue.offer(END);
+		if(!thread.isAlive()){
+			//not started (or already done), nobody else closes the file
+			try{
+				out.close();
+			}catch(IOException ex){}
+		}
+	}
+
+	public void run(){
+		try{
+			while(true){
+				StatisticsHistoryEntry entry=stopped?queue.poll():queue.take();
+				if(entry==null)break;
+				if(entry!=END){
+					out.write(entry.toString());
+					out.write('\n');
+				}
+				if(queue.isEmpty()){
+					out.flush();
+				}
+			}
+		}catch(InterruptedException ie){
+			//closing
+		}catch(IOException ex){
+			logger.log(Level.WARNING, "Can't write statistics to <"+file+">", ex);
+		}finally{
+			try{
+				out.close();
+			}catch(IOException ex){}
+			if(dropped.get()>0){
+				logger.info("Dropped "+dropped.get()+" statistics entries for <"+file+">");
+			}
+		}
+	}
+
+}
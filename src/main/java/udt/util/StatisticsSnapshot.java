@@ -0,0 +1,296 @@
+package udt.util;
+
+/**
+ * an immutable copy of the counters and parameters of a {@link UDTStatistics}.<br/>
+ *
+ * A snapshot covers an interval: from the creation of the statistics up to the snapshot time,
+ * or, for a snapshot returned by {@link #deltaSince(StatisticsSnapshot)}, the time between two
+ * snapshots. The rates refer to that interval. The parameters (RTT, window, etc) are
+ * the values at the snapshot time.
+ */
+public class StatisticsSnapshot {
+
+	//end of the interval, and its length (microseconds)
+	private final long time;
+	private final long interval;
+
+	private final long sentDataPackets;
+	private final long failedSentDataPackets;
+	private final long retransmittedDataPackets;
+	private final long receivedDataPackets;
+	private final long duplicateDataPackets;
+	private final long sentDataBytes;
+	private final long retransmittedDataBytes;
+	private final long receivedDataBytes;
+	private final long missingDataEvents;
+	private final long ackSent;
+	private final long ackReceived;
+	private final long lightAckSent;
+	private final long lightAckReceived;
+	private final long ack2Sent;
+	private final long ack2Received;
+	private final long nakSent;
+	private final long nakReceived;
+	private final long controlPacketsSent;
+	private final long controlPacketsReceived;
+	private final long ccSlowDownEvents;
+	private final long ccWindowExceededEvents;
+
+	private final long roundTripTime;
+	private final long roundTripTimeVariance;
+	private final long packetArrivalRate;
+	private final long estimatedLinkCapacity;
+	private final double sendPeriod;
+	private final long congestionWindowSize;
+
+	StatisticsSnapshot(UDTStatistics s, long time){
+		this.time=time;
+		this.interval=time-s.getStartTime();
+		sentDataPackets=s.getNumberOfSentDataPackets();
+		failedSentDataPackets=s.getNumberOfFailedSentDataPackets();
+		retransmittedDataPackets=s.getNumberOfRetransmittedDataPackets();
+		receivedDataPackets=s.getNumberOfReceivedDataPackets();
+		duplicateDataPackets=s.getNumberOfDuplicateDataPackets();
+		sentDataBytes=s.getNumberOfSentDataBytes();
+		retransmittedDataBytes=s.getNumberOfRetransmittedDataBytes();
+		receivedDataBytes=s.getNumberOfReceivedDataBytes();
+		missingDataEvents=s.getNumberOfMissingDataEvents();
+		ackSent=s.getNumberOfACKSent();
+		ackReceived=s.getNumberOfACKReceived();
+		lightAckSent=s.getNumberOfLightACKSent();
+		lightAckReceived=s.getNumberOfLightACKReceived();
+		ack2Sent=s.getNumberOfACK2Sent();
+		ack2Received=s.getNumberOfACK2Received();
+		nakSent=s.getNumberOfNAKSent();
+		nakReceived=s.getNumberOfNAKReceived();
+		controlPacketsSent=s.getNumberOfControlPacketsSent();
+		controlPacketsReceived=s.getNumberOfControlPacketsReceived();
+		ccSlowDownEvents=s.getNumberOfCCSlowDownEvents();
+		ccWindowExceededEvents=s.getNumberOfCCWindowExceededEvents();
+		roundTripTime=s.getRoundTripTime();
+		roundTripTimeVariance=s.getRoundTripTimeVariance();
+		packetArrivalRate=s.getPacketArrivalRate();
+		estimatedLinkCapacity=s.getEstimatedLinkCapacity();
+		sendPeriod=s.getSendPeriod();
+		congestionWindowSize=s.getCongestionWindowSize();
+	}
+
+	//the difference of the counters, parameters are taken from the newer snapshot
+	private StatisticsSnapshot(StatisticsSnapshot s, StatisticsSnapshot earlier){
+		time=s.time;
+		interval=s.time-earlier.time;
+		sentDataPackets=s.sentDataPackets-earlier.sentDataPackets;
+		failedSentDataPackets=s.failedSentDataPackets-earlier.failedSentDataPackets;
+		retransmittedDataPackets=s.retransmittedDataPackets-earlier.retransmittedDataPackets;
+		receivedDataPackets=s.receivedDataPackets-earlier.receivedDataPackets;
+		duplicateDataPackets=s.duplicateDataPackets-earlier.duplicateDataPackets;
+		sentDataBytes=s.sentDataBytes-earlier.sentDataBytes;
+		retransmittedDataBytes=s.retransmittedDataBytes-earlier.retransmittedDataBytes;
+		receivedDataBytes=s.receivedDataBytes-earlier.receivedDataBytes;
+		missingDataEvents=s.missingDataEvents-earlier.missingDataEvents;
+		ackSent=s.ackSent-earlier.ackSent;
+		ackReceived=s.ackReceived-earlier.ackReceived;
+		lightAckSent=s.lightAckSent-earlier.lightAckSent;
+		lightAckReceived=s.lightAckReceived-earlier.lightAckReceived;
+		ack2Sent=s.ack2Sent-earlier.ack2Sent;
+		ack2Received=s.ack2Received-earlier.ack2Received;
+		nakSent=s.nakSent-earlier.nakSent;
+		nakReceived=s.nakReceived-earlier.nakReceived;
+		controlPacketsSent=s.controlPacketsSent-earlier.controlPacketsSent;
+		controlPacketsReceived=s.controlPacketsReceived-earlier.controlPacketsReceived;
+		ccSlowDownEvents=s.ccSlowDownEvents-earlier.ccSlowDownEvents;
+		ccWindowExceededEvents=s.ccWindowExceededEvents-earlier.ccWindowExceededEvents;
+		roundTripTime=s.roundTripTime;
+		roundTripTimeVariance=s.roundTripTimeVariance;
+		packetArrivalRate=s.packetArrivalRate;
+		estimatedLinkCapacity=s.estimatedLinkCapacity;
+		sendPeriod=s.sendPeriod;
+		congestionWindowSize=s.congestionWindowSize;
+	}
+
+	/**
+	 * the counter increments between an earlier snapshot (of the same statistics) and this one
+	 * @param earlier - the earlier snapshot
+	 */
+	public StatisticsSnapshot deltaSince(StatisticsSnapshot earlier){
+		return new StatisticsSnapshot(this, earlier);
+	}
+
+	/**
+	 * snapshot time in microseconds (see {@link Util#getCurrentTime()})
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * the length of the interval covered by this snapshot in microseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * data packets sent per second (not counting retransmissions)
+	 */
+	public double getSendPacketRate(){
+		return perSecond(sentDataPackets);
+	}
+
+	/**
+	 * data packets received per second
+	 */
+	public double getReceivePacketRate(){
+		return perSecond(receivedDataPackets);
+	}
+
+	/**
+	 * data sent in Mbit/s, including retransmissions
+	 */
+	public double getSendMbitRate(){
+		return perSecond(sentDataBytes+retransmittedDataBytes)*8/1000000;
+	}
+
+	/**
+	 * data received in Mbit/s
+	 */
+	public double getReceiveMbitRate(){
+		return perSecond(receivedDataBytes)*8/1000000;
+	}
+
+	/**
+	 * retransmitted packets in percent of all data packets sent
+	 */
+	public double getRetransmitPercentage(){
+		long total=sentDataPackets+retransmittedDataPackets;
+		return total>0?100.0*retransmittedDataPackets/total:0;
+	}
+
+	/**
+	 * control packets (sent and received) per data packet (sent, re-sent and received)
+	 */
+	public double getControlToDataRatio(){
+		long data=sentDataPackets+retransmittedDataPackets+receivedDataPackets;
+		return data>0?(double)(controlPacketsSent+controlPacketsReceived)/data:0;
+	}
+
+	private double perSecond(long count){
+		return interval>0?count*1000000.0/interval:0;
+	}
+
+	public long getSentDataPackets() {
+		return sentDataPackets;
+	}
+
+	public long getFailedSentDataPackets() {
+		return failedSentDataPackets;
+	}
+
+	public long getRetransmittedDataPackets() {
+		return retransmittedDataPackets;
+	}
+
+	public long getReceivedDataPackets() {
+		return receivedDataPackets;
+	}
+
+	public long getDuplicateDataPackets() {
+		return duplicateDataPackets;
+	}
+
+	public long getSentDataBytes() {
+		return sentDataBytes;
+	}
+
+	public long getRetransmittedDataBytes() {
+		return retransmittedDataBytes;
+	}
+
+	public long getReceivedDataBytes() {
+		return receivedDataBytes;
+	}
+
+	public long getMissingDataEvents() {
+		return missingDataEvents;
+	}
+
+	public long getACKSent() {
+		return ackSent;
+	}
+
+	public long getACKReceived() {
+		return ackReceived;
+	}
+
+	public long getLightACKSent() {
+		return lightAckSent;
+	}
+
+	public long getLightACKReceived() {
+		return lightAckReceived;
+	}
+
+	public long getACK2Sent() {
+		return ack2Sent;
+	}
+
+	public long getACK2Received() {
+		return ack2Received;
+	}
+
+	public long getNAKSent() {
+		return nakSent;
+	}
+
+	public long getNAKReceived() {
+		return nakReceived;
+	}
+
+	public long getControlPacketsSent() {
+		return controlPacketsSent;
+	}
+
+	public long getControlPacketsReceived() {
+		return controlPacketsReceived;
+	}
+
+	public long getCCSlowDownEvents() {
+		return ccSlowDownEvents;
+	}
+
+	public long getCCWindowExceededEvents() {
+		return ccWindowExceededEvents;
+	}
+
+	public long getRoundTripTime() {
+		return roundTripTime;
+	}
+
+	public long getRoundTripTimeVariance() {
+		return roundTripTimeVariance;
+	}
+
+	public long getPacketArrivalRate() {
+		return packetArrivalRate;
+	}
+
+	public long getEstimatedLinkCapacity() {
+		return estimatedLinkCapacity;
+	}
+
+	public double getSendPeriod() {
+		return sendPeriod;
+	}
+
+	public long getCongestionWindowSize() {
+		return congestionWindowSize;
+	}
+
+	public String toString(){
+		return String.format("interval %.3f s: sent %d (%.2f Mbit/s), retransmitted %d (%.2f %%), received %d (%.2f Mbit/s), "
+				+"ACK %d/%d, NAK %d/%d, RTT %d, CWND %d",
+				interval/1000000.0, sentDataPackets, getSendMbitRate(), retransmittedDataPackets, getRetransmitPercentage(),
+				receivedDataPackets, getReceiveMbitRate(), ackSent, ackReceived, nakSent, nakReceived,
+				roundTripTime, congestionWindowSize);
+	}
+}
@@ -0,0 +1,93 @@
+package udt.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * converts {@link EventTrace} dumps to CSV.<br/>
+ *
+ * Usage: java -cp .. udt.util.TraceDecoder [--absolute] dumpfile ...<br/>
+ * Writes one line per event to standard output: socket ID, time in microseconds
+ * (relative to the first event of the dump, unless --absolute is given), event name and
+ * the two arguments. For CC events, the arguments are the congestion window and the send period.
+ */
+public class TraceDecoder {
+
+	private static boolean absolute=false;
+
+	public static void main(String[] args)throws IOException{
+		int files=0;
+		for(String arg: args){
+			if("--absolute".equals(arg)){
+				absolute=true;
+			}
+			else if(arg.startsWith("-")){
+				usage();
+				System.exit(1);
+			}
+		}
+		System.out.println("socket,time_us,event,arg1,arg2");
+		for(String arg: args){
+			if(arg.startsWith("-"))continue;
+			InputStream in=new BufferedInputStream(new FileInputStream(arg));
+			try{
+				decode(in, System.out);
+			}finally{
+				in.close();
+			}
+			files++;
+		}
+		if(files==0){
+			usage();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * decode a single dump
+	 * @param in - the dump, as written by {@link EventTrace#dump(java.io.OutputStream)}
+	 * @param out - where to write the CSV lines (without header)
+	 */
+	public static void decode(InputStream in, PrintStream out)throws IOException{
+		DataInputStream data=new DataInputStream(in);
+		if(data.readInt()!=EventTrace.MAGIC)throw new IOException("Not an event trace");
+		int version=data.readInt();
+		if(version!=EventTrace.VERSION)throw new IOException("Unsupported trace version "+version);
+		long socketID=data.readLong();
+		int count=data.readInt();
+		long first=-1;
+		StringBuilder sb=new StringBuilder();
+		try{
+			for(int i=0;i<count;i++){
+				long time=data.readLong();
+				int type=data.readInt();
+				long arg1=data.readLong();
+				long arg2=data.readLong();
+				if(first<0)first=time;
+				sb.setLength(0);
+				sb.append(socketID).append(',');
+				sb.append(absolute?time:time-first).append(',');
+				sb.append(type>0 && type<EventTrace.NAMES.length?EventTrace.NAMES[type]:String.valueOf(type)).append(',');
+				if(type==EventTrace.CC){
+					sb.append(Double.longBitsToDouble(arg1)).append(',').append(Double.longBitsToDouble(arg2));
+				}
+				else{
+					sb.append(arg1).append(',').append(arg2);
+				}
+				out.println(sb);
+			}
+		}catch(EOFException eof){
+			//truncated dump
+		}
+	}
+
+	public static void usage(){
+		System.out.println("Usage: java -cp .. udt.util.TraceDecoder [--absolute] dumpfile ...");
+	}
+
+}
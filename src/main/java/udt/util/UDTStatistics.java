@@ -35,28 +35,47 @@ package udt.util;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * This class is used to keep some statistics about a UDT connection. 
+ * This class is used to keep some statistics about a UDT connection. <br/>
+ * The counters are 64 bit {@link LongAdder}s, so updating them from several threads does
+ * not contend. Use {@link #snapshot()} to read them all at once.
  */
 public class UDTStatistics {
 
-	private final AtomicInteger numberOfSentDataPackets=new AtomicInteger(0);
-	private final AtomicInteger numberOfFailedSentDataPackets=new AtomicInteger(0);
-	private final AtomicInteger numberOfReceivedDataPackets=new AtomicInteger(0);
-	private final AtomicInteger numberOfDuplicateDataPackets=new AtomicInteger(0);
-	private final AtomicInteger numberOfMissingDataEvents=new AtomicInteger(0);
-	private final AtomicInteger numberOfNAKSent=new AtomicInteger(0);
-	private final AtomicInteger numberOfNAKReceived=new AtomicInteger(0);
-	private final AtomicInteger numberOfRetransmittedDataPackets=new AtomicInteger(0);
-	private final AtomicInteger numberOfACKSent=new AtomicInteger(0);
-	private final AtomicInteger numberOfACKReceived=new AtomicInteger(0);
-	private final AtomicInteger numberOfCCSlowDownEvents=new AtomicInteger(0);
-	private final AtomicInteger numberOfCCWindowExceededEvents=new AtomicInteger(0);
+	private final LongAdder numberOfSentDataPackets=new LongAdder();
+	private final LongAdder numberOfFailedSentDataPackets=new LongAdder();
+	private final LongAdder numberOfReceivedDataPackets=new LongAdder();
+	private final LongAdder numberOfDuplicateDataPackets=new LongAdder();
+	private final LongAdder numberOfMissingDataEvents=new LongAdder();
+	private final LongAdder numberOfNAKSent=new LongAdder();
+	private final LongAdder numberOfNAKReceived=new LongAdder();
+	private final LongAdder numberOfRetransmittedDataPackets=new LongAdder();
+	private final LongAdder numberOfACKSent=new LongAdder();
+	private final LongAdder numberOfACKReceived=new LongAdder();
+	private final LongAdder numberOfCCSlowDownEvents=new LongAdder();
+	private final LongAdder numberOfCCWindowExceededEvents=new LongAdder();
+	private final LongAdder numberOfSocketBufferFullEvents=new LongAdder();
+	private final LongAdder numberOfLightACKSent=new LongAdder();
+	private final LongAdder numberOfLightACKReceived=new LongAdder();
+	private final LongAdder numberOfACK2Sent=new LongAdder();
+	private final LongAdder numberOfACK2Received=new LongAdder();
+	private final LongAdder numberOfControlPacketsSent=new LongAdder();
+	private final LongAdder numberOfControlPacketsReceived=new LongAdder();
+
+	//data payload bytes
+	private final LongAdder numberOfSentDataBytes=new LongAdder();
+	private final LongAdder numberOfRetransmittedDataBytes=new LongAdder();
+	private final LongAdder numberOfReceivedDataBytes=new LongAdder();
+
+	//creation time (microseconds)
+	private final long startTime=Util.getCurrentTime();
 
 	private final String componentDescription;
 
@@ -68,77 +87,177 @@ public class UDTStatistics {
 	private volatile long congestionWindowSize;
 
 	private final List<MeanValue>metrics=new ArrayList<MeanValue>();
+
+	//latency histograms (microseconds)
+	private final Histogram sendTime=new Histogram("Datagram send time");
+	private final Histogram deliveryLatency=new Histogram("Receive to delivery latency");
+	private final Histogram receiverProcessingTime=new Histogram("Receiver processing time");
+	private final Histogram senderLateness=new Histogram("Sender task lateness");
+	private final Histogram ackTurnaround=new Histogram("ACK to ACK2 turnaround");
+	private final List<Histogram>histograms=Collections.unmodifiableList(Arrays.asList(
+			sendTime, deliveryLatency, receiverProcessingTime, senderLateness, ackTurnaround));
 		
 	public UDTStatistics(String componentDescription){
 		this.componentDescription=componentDescription;
 	}
 
-	public int getNumberOfSentDataPackets() {
-		return numberOfSentDataPackets.get();
+	public long getNumberOfSentDataPackets() {
+		return numberOfSentDataPackets.sum();
+	}
+	public long getNumberOfFailedSentDataPackets() {
+		return numberOfFailedSentDataPackets.sum();
+	}
+	public long getNumberOfReceivedDataPackets() {
+		return numberOfReceivedDataPackets.sum();
+	}
+	public long getNumberOfDuplicateDataPackets() {
+		return numberOfDuplicateDataPackets.sum();
+	}
+	public long getNumberOfNAKSent() {
+		return numberOfNAKSent.sum();
+	}
+	public long getNumberOfNAKReceived() {
+		return numberOfNAKReceived.sum();
 	}
-	public int getNumberOfFailedSentDataPackets() {
-		return numberOfFailedSentDataPackets.get();
+	public long getNumberOfRetransmittedDataPackets() {
+		return numberOfRetransmittedDataPackets.sum();
 	}
-	public int getNumberOfReceivedDataPackets() {
-		return numberOfReceivedDataPackets.get();
+	public long getNumberOfACKSent() {
+		return numberOfACKSent.sum();
+	}
+	public long getNumberOfACKReceived() {
+		return numberOfACKReceived.sum();
+	}
+	public long getNumberOfMissingDataEvents() {
+		return numberOfMissingDataEvents.sum();
+	}
+	public long getNumberOfCCSlowDownEvents() {
+		return numberOfCCSlowDownEvents.sum();
+	}
+	public long getNumberOfCCWindowExceededEvents() {
+		return numberOfCCWindowExceededEvents.sum();
+	}
+	/**
+	 * how often the sender had to wait because the socket send buffer was full
+	 */
+	public long getNumberOfSocketBufferFullEvents() {
+		return numberOfSocketBufferFullEvents.sum();
 	}
-	public int getNumberOfDuplicateDataPackets() {
-		return numberOfDuplicateDataPackets.get();
+	public long getNumberOfSentDataBytes() {
+		return numberOfSentDataBytes.sum();
 	}
-	public int getNumberOfNAKSent() {
-		return numberOfNAKSent.get();
+	public long getNumberOfRetransmittedDataBytes() {
+		return numberOfRetransmittedDataBytes.sum();
 	}
-	public int getNumberOfNAKReceived() {
-		return numberOfNAKReceived.get();
+	public long getNumberOfReceivedDataBytes() {
+		return numberOfReceivedDataBytes.sum();
 	}
-	public int getNumberOfRetransmittedDataPackets() {
-		return numberOfRetransmittedDataPackets.get();
+	public long getNumberOfLightACKSent() {
+		return numberOfLightACKSent.sum();
 	}
-	public int getNumberOfACKSent() {
-		return numberOfACKSent.get();
+	public long getNumberOfLightACKReceived() {
+		return numberOfLightACKReceived.sum();
 	}
-	public int getNumberOfACKReceived() {
-		return numberOfACKReceived.get();
+	public long getNumberOfACK2Sent() {
+		return numberOfACK2Sent.sum();
+	}
+	public long getNumberOfACK2Received() {
+		return numberOfACK2Received.sum();
+	}
+	public long getNumberOfControlPacketsSent() {
+		return numberOfControlPacketsSent.sum();
+	}
+	public long getNumberOfControlPacketsReceived() {
+		return numberOfControlPacketsReceived.sum();
+	}
+
+	/**
+	 * the number of control packets (sent and received) per data packet (sent, re-sent and received)
+	 */
+	public double getControlToDataRatio() {
+		long data=getNumberOfSentDataPackets()+getNumberOfRetransmittedDataPackets()+getNumberOfReceivedDataPackets();
+		long control=getNumberOfControlPacketsSent()+getNumberOfControlPacketsReceived();
+		return data>0?(double)control/data:0;
 	}
 	public void incNumberOfSentDataPackets() {
-		numberOfSentDataPackets.incrementAndGet();
+		numberOfSentDataPackets.increment();
 	}
 	public void incNumberOfFailedSentDataPackets() {
-		numberOfFailedSentDataPackets.incrementAndGet();
+		numberOfFailedSentDataPackets.increment();
 	}
 	public void incNumberOfReceivedDataPackets() {
-		numberOfReceivedDataPackets.incrementAndGet();
+		numberOfReceivedDataPackets.increment();
 	}
 	public void incNumberOfDuplicateDataPackets() {
-		numberOfDuplicateDataPackets.incrementAndGet();
+		numberOfDuplicateDataPackets.increment();
 	}
 	public void incNumberOfMissingDataEvents() {
-		numberOfMissingDataEvents.incrementAndGet();
+		numberOfMissingDataEvents.increment();
 	}
 	public void incNumberOfNAKSent() {
-		numberOfNAKSent.incrementAndGet();
+		numberOfNAKSent.increment();
 	}
 	public void incNumberOfNAKReceived() {
-		numberOfNAKReceived.incrementAndGet();
+		numberOfNAKReceived.increment();
 	}
 	public void incNumberOfRetransmittedDataPackets() {
-		numberOfRetransmittedDataPackets.incrementAndGet();
+		numberOfRetransmittedDataPackets.increment();
 	}
 
 	public void incNumberOfACKSent() {
-		numberOfACKSent.incrementAndGet();
+		numberOfACKSent.increment();
 	}
 
 	public void incNumberOfACKReceived() {
-		numberOfACKReceived.incrementAndGet();
+		numberOfACKReceived.increment();
+	}
+
+	public void addSentDataBytes(long bytes) {
+		numberOfSentDataBytes.add(bytes);
+	}
+
+	public void addRetransmittedDataBytes(long bytes) {
+		numberOfRetransmittedDataBytes.add(bytes);
+	}
+
+	public void addReceivedDataBytes(long bytes) {
+		numberOfReceivedDataBytes.add(bytes);
+	}
+
+	public void incNumberOfLightACKSent() {
+		numberOfLightACKSent.increment();
+	}
+
+	public void incNumberOfLightACKReceived() {
+		numberOfLightACKReceived.increment();
+	}
+
+	public void incNumberOfACK2Sent() {
+		numberOfACK2Sent.increment();
+	}
+
+	public void incNumberOfACK2Received() {
+		numberOfACK2Received.increment();
+	}
+
+	public void incNumberOfControlPacketsSent() {
+		numberOfControlPacketsSent.increment();
+	}
+
+	public void incNumberOfControlPacketsReceived() {
+		numberOfControlPacketsReceived.increment();
 	}
 
 	public void incNumberOfCCWindowExceededEvents() {
-		numberOfCCWindowExceededEvents.incrementAndGet();
+		numberOfCCWindowExceededEvents.increment();
+	}
+
+	public void incNumberOfSocketBufferFullEvents() {
+		numberOfSocketBufferFullEvents.increment();
 	}
 
 	public void incNumberOfCCSlowDownEvents() {
-		numberOfCCSlowDownEvents.incrementAndGet();
+		numberOfCCSlowDownEvents.increment();
 	}
 
 	public void setRTT(long rtt, long rttVar){
@@ -171,6 +290,33 @@ public class UDTStatistics {
 		return packetArrivalRate;
 	}
 
+	public long getEstimatedLinkCapacity(){
+		return estimatedLinkCapacity;
+	}
+
+	public long getRoundTripTime(){
+		return roundTripTime;
+	}
+
+	public long getRoundTripTimeVariance(){
+		return roundTripTimeVariance;
+	}
+
+	/**
+	 * the time this statistics object was created (microseconds, see {@link Util#getCurrentTime()})
+	 */
+	public long getStartTime(){
+		return startTime;
+	}
+
+	/**
+	 * read all counters and parameters, without locking. Counters that are updated concurrently
+	 * may be off by the updates in progress, but each of them is consistent.
+	 */
+	public StatisticsSnapshot snapshot(){
+		return new StatisticsSnapshot(this, Util.getCurrentTime());
+	}
+
 	/**
 	 * add a metric
 	 * @param m - the metric to add
@@ -187,57 +333,171 @@ public class UDTStatistics {
 		return Collections.unmodifiableList(metrics);
 	}
 	
+	/**
+	 * time spent in the endpoint sending a data packet
+	 */
+	public Histogram getSendTimeHistogram(){
+		return sendTime;
+	}
+
+	/**
+	 * time from the arrival of a data packet until the application reads it from the receive buffer
+	 */
+	public Histogram getDeliveryLatencyHistogram(){
+		return deliveryLatency;
+	}
+
+	/**
+	 * time spent in the receiver algorithm per received packet
+	 */
+	public Histogram getReceiverProcessingTimeHistogram(){
+		return receiverProcessingTime;
+	}
+
+	/**
+	 * delay between the scheduled and the actual start of the sender task
+	 */
+	public Histogram getSenderLatenessHistogram(){
+		return senderLateness;
+	}
+
+	/**
+	 * time from sending an ACK until receiving the matching ACK2
+	 */
+	public Histogram getAckTurnaroundHistogram(){
+		return ackTurnaround;
+	}
+
+	/**
+	 * get a read-only list containing all latency histograms
+	 */
+	public List<Histogram>getHistograms(){
+		return histograms;
+	}
+
+	/**
+	 * the latency histograms with values, one per line
+	 */
+	public String getHistogramSummary(){
+		StringBuilder sb=new StringBuilder();
+		for(Histogram h: histograms){
+			if(h.getTotalCount()>0)sb.append(h).append(" us\n");
+		}
+		return sb.toString();
+	}
+
 	public String toString(){
 		StringBuilder sb=new StringBuilder();
 		sb.append("Statistics for ").append(componentDescription).append("\n");
-		sb.append("Sent data packets: ").append(getNumberOfSentDataPackets()).append("\n");
+		sb.append("Sent data packets: ").append(getNumberOfSentDataPackets()).append(" (").append(getNumberOfSentDataBytes()).append(" bytes)\n");
 		sb.append("Failed to sent data packets: ").append(getNumberOfFailedSentDataPackets()).append("\n");
-		sb.append("Received data packets: ").append(getNumberOfReceivedDataPackets()).append("\n");
+		sb.append("Received data packets: ").append(getNumberOfReceivedDataPackets()).append(" (").append(getNumberOfReceivedDataBytes()).append(" bytes)\n");
 		sb.append("Duplicate data packets: ").append(getNumberOfDuplicateDataPackets()).append("\n");
 		sb.append("ACK received: ").append(getNumberOfACKReceived()).append("\n");
 		sb.append("NAK received: ").append(getNumberOfNAKReceived()).append("\n");
 		sb.append("Retransmitted data: ").append(getNumberOfRetransmittedDataPackets()).append("\n");
 		sb.append("NAK sent: ").append(getNumberOfNAKSent()).append("\n");
 		sb.append("ACK sent: ").append(getNumberOfACKSent()).append("\n");
+		if(getNumberOfLightACKSent()>0 || getNumberOfLightACKReceived()>0){
+			sb.append("Light ACK sent: ").append(getNumberOfLightACKSent()).append(", received: ").append(getNumberOfLightACKReceived()).append("\n");
+		}
+		sb.append("ACK2 sent: ").append(getNumberOfACK2Sent()).append(", received: ").append(getNumberOfACK2Received()).append("\n");
+		sb.append("Control packets sent: ").append(getNumberOfControlPacketsSent()).append(", received: ").append(getNumberOfControlPacketsReceived())
+			.append(" (").append(String.format("%.3f", getControlToDataRatio())).append(" per data packet)\n");
 		if(roundTripTime>0){
 			sb.append("RTT ").append(roundTripTime).append(" var. ").append(roundTripTimeVariance).append("\n");
 		}
 		if(packetArrivalRate>0){
 			sb.append("Packet rate: ").append(packetArrivalRate).append("/sec., link capacity: ").append(estimatedLinkCapacity).append("/sec.\n");
 		}
-		if(numberOfMissingDataEvents.get()>0){
-			sb.append("Sender without data events: ").append(numberOfMissingDataEvents.get()).append("\n");
+		if(numberOfMissingDataEvents.sum()>0){
+			sb.append("Sender without data events: ").append(numberOfMissingDataEvents.sum()).append("\n");
+		}
+		if(numberOfCCSlowDownEvents.sum()>0){
+			sb.append("CC rate slowdown events: ").append(numberOfCCSlowDownEvents.sum()).append("\n");
 		}
-		if(numberOfCCSlowDownEvents.get()>0){
-			sb.append("CC rate slowdown events: ").append(numberOfCCSlowDownEvents.get()).append("\n");
+		if(numberOfCCWindowExceededEvents.sum()>0){
+			sb.append("CC window slowdown events: ").append(numberOfCCWindowExceededEvents.sum()).append("\n");
 		}
-		if(numberOfCCWindowExceededEvents.get()>0){
-			sb.append("CC window slowdown events: ").append(numberOfCCWindowExceededEvents.get()).append("\n");
+		if(numberOfSocketBufferFullEvents.sum()>0){
+			sb.append("Socket send buffer full events: ").append(numberOfSocketBufferFullEvents.sum()).append("\n");
 		}
 		sb.append("CC parameter SND:  ").append((int)sendPeriod).append("\n");
 		sb.append("CC parameter CWND: ").append(congestionWindowSize).append("\n");
 		for(MeanValue v: metrics){
 			sb.append(v.getName()).append(": ").append(v.getFormattedMean()).append("\n");
 		}
+		sb.append(getHistogramSummary());
 		return sb.toString();
 	}
 
-	private final List<StatisticsHistoryEntry>statsHistory=new ArrayList<StatisticsHistoryEntry>();
+	//max. number of parameter snapshots kept in memory (the oldest ones are discarded)
+	private final int historySize=Integer.getInteger("udt.statistics.historySize", 1024);
+	//min. time between two parameter snapshots in milliseconds, 0 to store every snapshot
+	private final long sampleInterval=Integer.getInteger("udt.statistics.sampleInterval", 0);
+
+	private final ArrayDeque<StatisticsHistoryEntry>statsHistory=new ArrayDeque<StatisticsHistoryEntry>();
 	boolean first=true;
 	private long initialTime;
+	private long lastSampleTime;
+	//if set, parameter snapshots are streamed to a file
+	private StatisticsHistoryWriter historyWriter;
+
 	/**
-	 * take a snapshot of relevant parameters for later storing to
-	 * file using {@link #writeParameterHistory(File)}
+	 * take a snapshot of the congestion control parameters and metrics, for later storing to
+	 * file using {@link #writeParameterHistory(File)}, or for streaming to the file given to
+	 * {@link #startParameterHistory(File)}. Only the latest <code>udt.statistics.historySize</code>
+	 * snapshots are kept in memory, and at most one per <code>udt.statistics.sampleInterval</code>
+	 * milliseconds is taken.
 	 */
 	public void storeParameters(){
+		long now=System.currentTimeMillis();
 		synchronized (statsHistory) {
 			if(first){
 				first=false;
-				statsHistory.add(new StatisticsHistoryEntry(true,0,metrics));
-				initialTime=System.currentTimeMillis();
+				initialTime=now;
+			}
+			else if(sampleInterval>0 && now-lastSampleTime<sampleInterval){
+				return;
 			}
-			statsHistory.add(new StatisticsHistoryEntry(false,System.currentTimeMillis()-initialTime,metrics));
+			lastSampleTime=now;
+			StatisticsHistoryEntry entry=createHistoryEntry(now-initialTime);
+			if(historyWriter!=null){
+				historyWriter.offer(entry);
+				return;
+			}
+			if(statsHistory.size()>=historySize)statsHistory.removeFirst();
+			statsHistory.addLast(entry);
+		}
+	}
+
+	private StatisticsHistoryEntry createHistoryHeading(){
+		Object[]values=new Object[7+metrics.size()];
+		values[0]="time";
+		values[1]="SND";
+		values[2]="CWND";
+		values[3]="RTT";
+		values[4]="RTTVar";
+		values[5]="packet rate";
+		values[6]="link capacity";
+		for(int i=0;i<metrics.size();i++){
+			values[7+i]=metrics.get(i).getName();
+		}
+		return new StatisticsHistoryEntry(true,0,values);
+	}
+
+	private StatisticsHistoryEntry createHistoryEntry(long time){
+		Object[]values=new Object[6+metrics.size()];
+		values[0]=(long)sendPeriod;
+		values[1]=congestionWindowSize;
+		values[2]=roundTripTime;
+		values[3]=roundTripTimeVariance;
+		values[4]=packetArrivalRate;
+		values[5]=estimatedLinkCapacity;
+		for(int i=0;i<metrics.size();i++){
+			values[6+i]=metrics.get(i).getFormattedMean();
 		}
+		return new StatisticsHistoryEntry(false,time,values);
 	}
 
 	/**
@@ -248,6 +508,8 @@ public class UDTStatistics {
 		FileWriter fos=new FileWriter(toFile);
 		try{
 			synchronized (statsHistory) {
+				fos.write(createHistoryHeading().toString());
+				fos.write('\n');
 				for(StatisticsHistoryEntry s: statsHistory){
 					fos.write(s.toString());
 					fos.write('\n');
@@ -258,4 +520,37 @@ public class UDTStatistics {
 		}
 	}
 
+	/**
+	 * stream parameter snapshots to the given file. The snapshots stored so far are
+	 * written first. Writing is done by a background thread, see {@link StatisticsHistoryWriter}.
+	 * @param toFile
+	 */
+	public void startParameterHistory(File toFile)throws IOException{
+		StatisticsHistoryWriter writer;
+		synchronized (statsHistory) {
+			//check before the file is opened (and truncated)
+			if(historyWriter!=null)throw new IllegalStateException("Already writing to "+historyWriter.getFile());
+			writer=new StatisticsHistoryWriter(toFile, historySize+1);
+			writer.offer(createHistoryHeading());
+			while(!statsHistory.isEmpty()){
+				if(!writer.offer(statsHistory.peekFirst()))break;
+				statsHistory.removeFirst();
+			}
+			historyWriter=writer;
+		}
+		writer.start();
+	}
+
+	/**
+	 * stop streaming parameter snapshots, and close the file
+	 */
+	public void stopParameterHistory(){
+		StatisticsHistoryWriter writer;
+		synchronized (statsHistory) {
+			writer=historyWriter;
+			historyWriter=null;
+		}
+		if(writer!=null)writer.close();
+	}
+
 }
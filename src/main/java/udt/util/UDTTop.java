@@ -0,0 +1,321 @@
+package udt.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * live monitor for the UDT sessions of a running JVM, similar to "top".<br/>
+ *
+ * Connects through JMX to the session MBeans (see {@link udt.jmx.JMXSupport}) and shows a
+ * refreshing table with throughput, retransmit percentage, RTT, send period, CWND and buffer fill
+ * of each session. The monitored JVM must have remote JMX enabled, e.g. with
+ * <code>-Dcom.sun.management.jmxremote.port=9010 -Dcom.sun.management.jmxremote.authenticate=false
+ * -Dcom.sun.management.jmxremote.ssl=false</code>.<br/>
+ *
+ * While running, enter a column name to sort by that column (again to reverse the order),
+ * or "q" to quit.<br/>
+ *
+ * Usage: java -cp .. udt.util.UDTTop [--interval=seconds] [--sort=column] [--count=n] [--batch] host:port|JMX service URL
+ */
+public class UDTTop {
+
+	private static int interval=2;
+
+	private static String sortColumn="send";
+
+	private static int count=0;
+
+	private static boolean batch=false;
+
+	//column name, heading, format
+	private static final String[][] COLUMNS={
+		{"id", "ID", "%-8s"},
+		{"peer", "PEER", "%-24s"},
+		{"state", "STATE", "%6s"},
+		{"send", "SEND Mb/s", "%10s"},
+		{"recv", "RECV Mb/s", "%10s"},
+		{"retr", "RETR%", "%7s"},
+		{"rtt", "RTT ms", "%8s"},
+		{"snd", "SND us", "%9s"},
+		{"cwnd", "CWND", "%8s"},
+		{"sndbuf", "SNDBUF", "%9s"},
+		{"rcvbuf", "RCVBUF", "%9s"},
+	};
+
+	private static final String[] ATTRIBUTES={"SocketID", "Peer", "State", "SentDataBytes", "ReceivedDataBytes",
+		"RetransmitPercentage", "RoundTripTime", "SendPeriod", "CongestionWindowSize",
+		"FlowWindowOccupancy", "FlowWindowSize", "ReceiveBufferFill", "ReceiveBufferSize"};
+
+	private final MBeanServerConnection connection;
+
+	//byte counters of the last refresh, for computing the throughput
+	private Map<ObjectName, long[]>previous=new HashMap<ObjectName, long[]>();
+
+	private long previousTime;
+
+	private volatile String sort;
+
+	private volatile boolean descending;
+
+	public UDTTop(MBeanServerConnection connection){
+		this.connection=connection;
+		setSort(sortColumn);
+	}
+
+	public static void main(String[] fullArgs)throws Exception{
+		String[] args=parseOptions(fullArgs);
+		if(args.length!=1){
+			usage();
+			System.exit(1);
+		}
+		JMXConnector connector=JMXConnectorFactory.connect(createURL(args[0]));
+		try{
+			UDTTop top=new UDTTop(connector.getMBeanServerConnection());
+			if(!batch)top.startInputReader();
+			for(int i=0;count==0 || i<count;i++){
+				String table=top.refresh();
+				if(!batch)System.out.print("\033[H\033[2J");
+				System.out.println(table);
+				if(count==0 || i<count-1)Thread.sleep(interval*1000L);
+			}
+		}finally{
+			connector.close();
+		}
+		System.exit(0);
+	}
+
+	static JMXServiceURL createURL(String target)throws IOException{
+		if(target.startsWith("service:jmx:")){
+			return new JMXServiceURL(target);
+		}
+		return new JMXServiceURL("service:jmx:rmi:///jndi/rmi://"+target+"/jmxrmi");
+	}
+
+	/**
+	 * set the sort column, selecting the same column again reverses the order
+	 * @param column - the column name
+	 * @return false if there is no such column
+	 */
+	public boolean setSort(String column){
+		if(columnIndex(column)<0)return false;
+		if(column.equals(sort)){
+			descending=!descending;
+		}
+		else{
+			sort=column;
+			//numbers are sorted largest first
+			descending=columnIndex(column)>=3;
+		}
+		return true;
+	}
+
+	/**
+	 * read the session MBeans and format the table
+	 */
+	public String refresh()throws Exception{
+		long now=System.currentTimeMillis();
+		double seconds=previousTime>0?(now-previousTime)/1000.0:0;
+		Set<ObjectName>names=connection.queryNames(new ObjectName("udt:type=Session,*"), null);
+		Map<ObjectName, long[]>current=new HashMap<ObjectName, long[]>();
+		List<Object[]>rows=new ArrayList<Object[]>();
+		for(ObjectName name: names){
+			Map<String,Object>values=new HashMap<String, Object>();
+			try{
+				AttributeList list=connection.getAttributes(name, ATTRIBUTES);
+				for(Attribute a: list.asList()){
+					values.put(a.getName(), a.getValue());
+				}
+			}catch(Exception ex){
+				//session closed in the meantime
+				continue;
+			}
+			if(values.size()<ATTRIBUTES.length)continue;
+			long sent=(Long)values.get("SentDataBytes");
+			long received=(Long)values.get("ReceivedDataBytes");
+			current.put(name, new long[]{sent, received});
+			long[]last=previous.get(name);
+			Double sendRate=null;
+			Double receiveRate=null;
+			if(last!=null && seconds>0){
+				sendRate=(sent-last[0])*8/seconds/1e6;
+				receiveRate=(received-last[1])*8/seconds/1e6;
+			}
+			rows.add(new Object[]{
+				values.get("SocketID"),
+				values.get("Peer"),
+				values.get("State"),
+				sendRate,
+				receiveRate,
+				values.get("RetransmitPercentage"),
+				((Long)values.get("RoundTripTime"))/1000.0,
+				values.get("SendPeriod"),
+				values.get("CongestionWindowSize"),
+				new Fill((Integer)values.get("FlowWindowOccupancy"), (Integer)values.get("FlowWindowSize")),
+				new Fill((Integer)values.get("ReceiveBufferFill"), (Integer)values.get("ReceiveBufferSize")),
+			});
+		}
+		previous=current;
+		previousTime=now;
+		Collections.sort(rows, new RowComparator(columnIndex(sort), descending));
+		return format(rows);
+	}
+
+	private String format(List<Object[]>rows){
+		StringBuilder sb=new StringBuilder();
+		sb.append(String.format("udt-top  %tT  %d sessions, sorted by %s%s%n%n", System.currentTimeMillis(), rows.size(),
+				sort, descending?" (desc.)":""));
+		for(String[]c: COLUMNS){
+			sb.append(String.format(c[2], c[1])).append(' ');
+		}
+		sb.append('\n');
+		for(Object[]row: rows){
+			for(int i=0;i<COLUMNS.length;i++){
+				sb.append(String.format(COLUMNS[i][2], formatValue(row[i]))).append(' ');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String formatValue(Object value){
+		if(value==null)return "-";
+		if(value instanceof Double || value instanceof Float){
+			return String.format("%.2f", ((Number)value).doubleValue());
+		}
+		return String.valueOf(value);
+	}
+
+	private static int columnIndex(String column){
+		for(int i=0;i<COLUMNS.length;i++){
+			if(COLUMNS[i][0].equals(column))return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * reads sort commands from the console
+	 */
+	private void startInputReader(){
+		Thread t=new Thread(new Runnable(){
+			public void run(){
+				BufferedReader in=new BufferedReader(new InputStreamReader(System.in));
+				try{
+					String line;
+					while((line=in.readLine())!=null){
+						line=line.trim();
+						if("q".equals(line))System.exit(0);
+						if(line.length()>0 && !setSort(line)){
+							System.out.println("Unknown column <"+line+">");
+						}
+					}
+				}catch(IOException ex){}
+			}
+		});
+		t.setName("UDTTop-input");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * used / size of a buffer, sorted by the fill ratio
+	 */
+	private static class Fill implements Comparable<Fill>{
+		final int used;
+		final int size;
+		Fill(int used, int size){
+			this.used=used;
+			this.size=size;
+		}
+		double ratio(){
+			return size>0?(double)used/size:0;
+		}
+		public int compareTo(Fill o){
+			return Double.compare(ratio(), o.ratio());
+		}
+		public String toString(){
+			return used+"/"+size;
+		}
+	}
+
+	private static class RowComparator implements Comparator<Object[]>{
+		private final int column;
+		private final boolean descending;
+		RowComparator(int column, boolean descending){
+			this.column=column;
+			this.descending=descending;
+		}
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public int compare(Object[] a, Object[] b){
+			Object x=a[column];
+			Object y=b[column];
+			int res;
+			//missing values last
+			if(x==null || y==null){
+				return x==null?(y==null?0:1):-1;
+			}
+			if(x instanceof Number && y instanceof Number){
+				res=Double.compare(((Number)x).doubleValue(), ((Number)y).doubleValue());
+			}
+			else if(x instanceof Comparable){
+				res=((Comparable)x).compareTo(y);
+			}
+			else{
+				res=String.valueOf(x).compareTo(String.valueOf(y));
+			}
+			return descending?-res:res;
+		}
+	}
+
+	protected static String[] parseOptions(String[] args){
+		List<String>newArgs=new ArrayList<String>();
+		for(String arg: args){
+			if(arg.startsWith("--interval=")){
+				interval=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.startsWith("--sort=")){
+				sortColumn=arg.split("=")[1];
+				if(columnIndex(sortColumn)<0){
+					usage();
+					System.exit(1);
+				}
+			}
+			else if(arg.startsWith("--count=")){
+				count=Integer.parseInt(arg.split("=")[1]);
+			}
+			else if(arg.equals("--batch")){
+				batch=true;
+			}
+			else if(arg.startsWith("-")){
+				usage();
+				System.exit(1);
+			}
+			else{
+				newArgs.add(arg);
+			}
+		}
+		return newArgs.toArray(new String[newArgs.size()]);
+	}
+
+	public static void usage(){
+		System.out.println("Usage: java -cp .. udt.util.UDTTop [--interval=seconds] [--sort=column] [--count=n] [--batch] host:port|JMX service URL");
+		StringBuilder sb=new StringBuilder();
+		for(String[]c: COLUMNS)sb.append(c[0]).append(' ');
+		System.out.println("Columns: "+sb.toString().trim());
+	}
+}
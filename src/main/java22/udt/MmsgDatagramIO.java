@@ -0,0 +1,423 @@
+package udt;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link BatchDatagramIO} with the Linux system calls <code>recvmmsg</code> and <code>sendmmsg</code>,
+ * called through the Foreign Function and Memory API (Java 22 version from the multi-release JAR).
+ * It is available on 64 bit Linux if native access is allowed
+ * (<code>--enable-native-access=ALL-UNNAMED</code>, otherwise the JVM prints a warning).<br/>
+ *
+ * The channel does not expose its file descriptor. To find it, the channel's multicast TTL is set
+ * to a marker value, and the open sockets of the process are searched for the one with the channel's
+ * local address and the marker. The datagrams are copied between the Java arrays and native buffers
+ * allocated once.
+ */
+final class MmsgDatagramIO implements BatchDatagramIO {
+
+	private static final Logger logger=Logger.getLogger(MmsgDatagramIO.class.getName());
+
+	//Linux constants
+	private static final int AF_INET=2;
+	private static final int AF_INET6=10;
+	private static final int SOL_SOCKET=1;
+	private static final int SO_TYPE=3;
+	private static final int SOCK_DGRAM=2;
+	private static final int IPPROTO_IP=0;
+	private static final int IP_MULTICAST_TTL=33;
+	private static final int IPPROTO_IPV6=41;
+	private static final int IPV6_MULTICAST_HOPS=18;
+	private static final int MSG_DONTWAIT=0x40;
+	private static final int EINTR=4;
+	private static final int EAGAIN=11;
+
+	//multicast TTL that marks the channel's socket while searching for it (unicast traffic ignores it)
+	private static final int MARKER_TTL=113;
+
+	//the max. number of messages per call (UIO_MAXIOV)
+	private static final int MAX_BATCH=1024;
+
+	//struct iovec, struct mmsghdr and struct sockaddr_in6 on 64 bit Linux
+	private static final long IOVEC_SIZE=16;
+	private static final long IOV_LEN=8;
+	private static final long MMSGHDR_SIZE=64;
+	private static final long MSG_NAME=0;
+	private static final long MSG_NAMELEN=8;
+	private static final long MSG_IOV=16;
+	private static final long MSG_IOVLEN=24;
+	private static final long MSG_LEN=56;
+	private static final int SOCKADDR_SIZE=28;
+	private static final int SOCKADDR_IN_SIZE=16;
+
+	private static final MethodHandle recvmmsg;
+	private static final MethodHandle sendmmsg;
+	private static final MethodHandle getsockname;
+	private static final MethodHandle getsockopt;
+
+	//errno in the captured call state
+	private static final long errnoOffset;
+	private static final long callStateSize;
+
+	static{
+		MethodHandle recv=null, send=null, name=null, opt=null;
+		long offset=0, size=0;
+		if(System.getProperty("os.name", "").startsWith("Linux") && ADDRESS.byteSize()==8){
+			try{
+				Linker linker=Linker.nativeLinker();
+				SymbolLookup libc=linker.defaultLookup();
+				Linker.Option errno=Linker.Option.captureCallState("errno");
+				recv=linker.downcallHandle(libc.find("recvmmsg").orElseThrow(),
+						FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS), errno);
+				send=linker.downcallHandle(libc.find("sendmmsg").orElseThrow(),
+						FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), errno);
+				name=linker.downcallHandle(libc.find("getsockname").orElseThrow(),
+						FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, ADDRESS));
+				opt=linker.downcallHandle(libc.find("getsockopt").orElseThrow(),
+						FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS));
+				StructLayout state=Linker.Option.captureStateLayout();
+				offset=state.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+				size=state.byteSize();
+			}catch(Throwable t){
+				//e.g. native access denied
+				logger.log(Level.INFO, "recvmmsg/sendmmsg not available: "+t);
+				recv=null;
+			}
+		}
+		recvmmsg=recv;
+		sendmmsg=send;
+		getsockname=name;
+		getsockopt=opt;
+		errnoOffset=offset;
+		callStateSize=size;
+	}
+
+	private final int fd;
+
+	//address family of the socket
+	private final int family;
+
+	private final int batchSize;
+
+	private final int datagramSize;
+
+	//freed when no longer referenced, the socket may still be in use when close() is called
+	private final Arena arena=Arena.ofAuto();
+
+	//receive state, guarded by receiveLock
+	private final Object receiveLock=new Object();
+	private final MemorySegment receiveVector;
+	private final MemorySegment receiveBuffers;
+	private final MemorySegment receiveNames;
+	private final MemorySegment receiveState;
+	private final MemorySegment lastSourceName;
+	private InetSocketAddress lastSource;
+
+	//send state, guarded by sendLock
+	private final Object sendLock=new Object();
+	private final MemorySegment sendVector;
+	private final MemorySegment sendIov;
+	private final MemorySegment sendBuffers;
+	private final MemorySegment sendName;
+	private final MemorySegment sendState;
+	private InetSocketAddress lastTarget;
+	private int lastTargetLength;
+
+	//guarded by both locks
+	private volatile boolean closed=false;
+
+	private MmsgDatagramIO(int fd, int family, int batchSize, int datagramSize){
+		this.fd=fd;
+		this.family=family;
+		this.batchSize=batchSize;
+		this.datagramSize=datagramSize;
+		receiveBuffers=arena.allocate((long)batchSize*datagramSize, 8);
+		receiveNames=arena.allocate((long)batchSize*SOCKADDR_SIZE, 8);
+		receiveVector=createVector(receiveBuffers, arena.allocate(batchSize*IOVEC_SIZE, 8), receiveNames, SOCKADDR_SIZE);
+		receiveState=arena.allocate(callStateSize, 8);
+		lastSourceName=arena.allocate(SOCKADDR_SIZE, 8);
+		sendBuffers=arena.allocate((long)batchSize*datagramSize, 8);
+		sendName=arena.allocate(SOCKADDR_SIZE, 8);
+		sendIov=arena.allocate(batchSize*IOVEC_SIZE, 8);
+		sendVector=createVector(sendBuffers, sendIov, sendName, 0);
+		sendState=arena.allocate(callStateSize, 8);
+	}
+
+	/**
+	 * set up the message headers, each with one datagram buffer
+	 * @param nameSize - the size of the address of each message, or 0 if all share the same address
+	 */
+	private MemorySegment createVector(MemorySegment buffers, MemorySegment iov, MemorySegment names, int nameSize){
+		MemorySegment vector=arena.allocate(batchSize*MMSGHDR_SIZE, 8);
+		for(int i=0;i<batchSize;i++){
+			MemorySegment iovec=iov.asSlice(i*IOVEC_SIZE, IOVEC_SIZE);
+			iovec.set(ADDRESS, 0, buffers.asSlice((long)i*datagramSize, datagramSize));
+			iovec.set(JAVA_LONG, IOV_LEN, datagramSize);
+			MemorySegment header=vector.asSlice(i*MMSGHDR_SIZE, MMSGHDR_SIZE);
+			header.set(ADDRESS, MSG_NAME, names.asSlice((long)i*nameSize, SOCKADDR_SIZE));
+			header.set(JAVA_INT, MSG_NAMELEN, SOCKADDR_SIZE);
+			header.set(ADDRESS, MSG_IOV, iovec);
+			header.set(JAVA_LONG, MSG_IOVLEN, 1);
+		}
+		return vector;
+	}
+
+	/**
+	 * @param channel - a bound, non-blocking channel
+	 * @param batchSize - the max. number of datagrams per call
+	 * @param datagramSize - the max. size of a datagram
+	 * @return the batched I/O for the channel, or <code>null</code> if not available on this platform
+	 */
+	static BatchDatagramIO open(DatagramChannel channel, int batchSize, int datagramSize){
+		if(recvmmsg==null)return null;
+		try{
+			InetSocketAddress local=(InetSocketAddress)channel.getLocalAddress();
+			if(local==null)return null;
+			try(Arena arena=Arena.ofConfined()){
+				MemorySegment name=arena.allocate(SOCKADDR_SIZE, 8);
+				int ttl=channel.getOption(StandardSocketOptions.IP_MULTICAST_TTL);
+				int marker=ttl==MARKER_TTL?MARKER_TTL+1:MARKER_TTL;
+				int fd;
+				channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, marker);
+				try{
+					fd=findSocket(local, marker, name, arena);
+				}finally{
+					channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+				}
+				if(fd<0){
+					logger.info("Socket of <"+local+"> not found, not using recvmmsg/sendmmsg");
+					return null;
+				}
+				int family=name.get(JAVA_SHORT, 0);
+				logger.info("Using recvmmsg/sendmmsg on socket "+fd+" <"+local+">");
+				return new MmsgDatagramIO(fd, family, Math.min(batchSize, MAX_BATCH), datagramSize);
+			}
+		}catch(Throwable t){
+			logger.log(Level.WARNING, "Cannot use recvmmsg/sendmmsg", t);
+			return null;
+		}
+	}
+
+	/**
+	 * find the datagram socket bound to the given address, with the given multicast TTL
+	 * @param marker - the multicast TTL set on the channel
+	 * @param name - receives the address of the socket
+	 * @return the file descriptor, or -1 if there is none, or more than one
+	 */
+	private static int findSocket(InetSocketAddress local, int marker, MemorySegment name, Arena arena)throws Throwable{
+		MemorySegment value=arena.allocate(JAVA_INT);
+		MemorySegment length=arena.allocate(JAVA_INT);
+		MemorySegment candidate=arena.allocate(SOCKADDR_SIZE, 8);
+		int found=-1;
+		try(DirectoryStream<Path>fds=Files.newDirectoryStream(Paths.get("/proc/self/fd"))){
+			for(Path p: fds){
+				int fd;
+				try{
+					fd=Integer.parseInt(p.getFileName().toString());
+				}catch(NumberFormatException ex){
+					continue;
+				}
+				length.set(JAVA_INT, 0, 4);
+				if((int)getsockopt.invokeExact(fd, SOL_SOCKET, SO_TYPE, value, length)!=0
+						|| value.get(JAVA_INT, 0)!=SOCK_DGRAM){
+					continue;
+				}
+				length.set(JAVA_INT, 0, SOCKADDR_SIZE);
+				if((int)getsockname.invokeExact(fd, candidate, length)!=0)continue;
+				InetSocketAddress address=decode(candidate);
+				if(address==null || address.getPort()!=local.getPort())continue;
+				InetAddress a=address.getAddress();
+				if(!a.equals(local.getAddress()) && !(a.isAnyLocalAddress() && local.getAddress().isAnyLocalAddress())){
+					continue;
+				}
+				//same address, e.g. a second socket with SO_REUSEPORT: check the marker
+				boolean ipv6=candidate.get(JAVA_SHORT, 0)==AF_INET6;
+				length.set(JAVA_INT, 0, 4);
+				if((int)getsockopt.invokeExact(fd, ipv6?IPPROTO_IPV6:IPPROTO_IP, ipv6?IPV6_MULTICAST_HOPS:IP_MULTICAST_TTL, value, length)!=0
+						|| value.get(JAVA_INT, 0)!=marker){
+					continue;
+				}
+				//do not guess
+				if(found>=0)return -1;
+				found=fd;
+				name.copyFrom(candidate);
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public int receive(byte[][]buffers, int[]lengths, InetSocketAddress[]sources)throws IOException{
+		synchronized (receiveLock) {
+			if(closed)throw new ClosedChannelException();
+			int n=Math.min(buffers.length, batchSize);
+			//value-result argument
+			for(int i=0;i<n;i++){
+				receiveVector.set(JAVA_INT, i*MMSGHDR_SIZE+MSG_NAMELEN, SOCKADDR_SIZE);
+			}
+			int res;
+			try{
+				res=(int)recvmmsg.invokeExact(receiveState, fd, receiveVector, n, MSG_DONTWAIT, MemorySegment.NULL);
+			}catch(Throwable t){
+				throw new IOException(t);
+			}
+			if(res<0){
+				int errno=receiveState.get(JAVA_INT, errnoOffset);
+				if(errno==EAGAIN || errno==EINTR)return 0;
+				throw new IOException("recvmmsg failed, errno "+errno);
+			}
+			for(int i=0;i<res;i++){
+				//longer datagrams are truncated, as by DatagramChannel.receive()
+				int length=Math.min(receiveVector.get(JAVA_INT, i*MMSGHDR_SIZE+MSG_LEN), Math.min(buffers[i].length, datagramSize));
+				MemorySegment.copy(receiveBuffers, JAVA_BYTE, (long)i*datagramSize, buffers[i], 0, length);
+				lengths[i]=length;
+				sources[i]=getSource(receiveNames.asSlice((long)i*SOCKADDR_SIZE, SOCKADDR_SIZE));
+			}
+			return res;
+		}
+	}
+
+	@Override
+	public int send(byte[][]datagrams, int offset, int count, InetSocketAddress target)throws IOException{
+		synchronized (sendLock) {
+			if(closed)throw new ClosedChannelException();
+			int n=Math.min(count, batchSize);
+			if(!target.equals(lastTarget)){
+				lastTargetLength=encode(target, sendName);
+				lastTarget=target;
+			}
+			for(int i=0;i<n;i++){
+				byte[]data=datagrams[offset+i];
+				if(data.length>datagramSize){
+					throw new IOException("Datagram too large: "+data.length);
+				}
+				MemorySegment.copy(data, 0, sendBuffers, JAVA_BYTE, (long)i*datagramSize, data.length);
+				sendIov.set(JAVA_LONG, i*IOVEC_SIZE+IOV_LEN, data.length);
+				sendVector.set(JAVA_INT, i*MMSGHDR_SIZE+MSG_NAMELEN, lastTargetLength);
+			}
+			int res;
+			try{
+				res=(int)sendmmsg.invokeExact(sendState, fd, sendVector, n, MSG_DONTWAIT);
+			}catch(Throwable t){
+				throw new IOException(t);
+			}
+			if(res<0){
+				int errno=sendState.get(JAVA_INT, errnoOffset);
+				if(errno==EAGAIN || errno==EINTR)return 0;
+				throw new IOException("sendmmsg failed, errno "+errno);
+			}
+			return res;
+		}
+	}
+
+	@Override
+	public void close(){
+		//wait for calls in progress, the descriptor may be re-used after the channel is closed
+		synchronized (receiveLock) {
+			synchronized (sendLock) {
+				closed=true;
+			}
+		}
+	}
+
+	/**
+	 * the sender address, in most cases the same as for the previous datagram
+	 */
+	private InetSocketAddress getSource(MemorySegment name)throws IOException{
+		if(lastSource!=null && name.mismatch(lastSourceName)<0){
+			return lastSource;
+		}
+		InetSocketAddress source=decode(name);
+		if(source==null)throw new IOException("Unsupported address family "+name.get(JAVA_SHORT, 0));
+		lastSourceName.copyFrom(name);
+		lastSource=source;
+		return source;
+	}
+
+	/**
+	 * decode a struct sockaddr_in or sockaddr_in6
+	 * @return the address, or <code>null</code> for other address families
+	 */
+	private static InetSocketAddress decode(MemorySegment name)throws IOException{
+		int family=name.get(JAVA_SHORT, 0);
+		int port=((name.get(JAVA_BYTE, 2)&0xff)<<8) | (name.get(JAVA_BYTE, 3)&0xff);
+		InetAddress address;
+		if(family==AF_INET){
+			byte[]a=new byte[4];
+			MemorySegment.copy(name, JAVA_BYTE, 4, a, 0, 4);
+			address=InetAddress.getByAddress(a);
+		}
+		else if(family==AF_INET6){
+			byte[]a=new byte[16];
+			MemorySegment.copy(name, JAVA_BYTE, 8, a, 0, 16);
+			int scope=name.get(JAVA_INT, 24);
+			//IPv4-mapped addresses are converted to IPv4 addresses
+			address=InetAddress.getByAddress(a);
+			if(scope!=0 && address instanceof Inet6Address){
+				address=Inet6Address.getByAddress(null, a, scope);
+			}
+		}
+		else{
+			return null;
+		}
+		return new InetSocketAddress(address, port);
+	}
+
+	/**
+	 * encode the target address for the address family of the socket
+	 * @return the length of the address
+	 */
+	private int encode(InetSocketAddress target, MemorySegment name)throws IOException{
+		InetAddress address=target.getAddress();
+		if(address==null)throw new IOException("Unresolved address: "+target);
+		byte[]a=address.getAddress();
+		int port=target.getPort();
+		name.fill((byte)0);
+		name.set(JAVA_BYTE, 2, (byte)(port>>8));
+		name.set(JAVA_BYTE, 3, (byte)port);
+		if(family==AF_INET){
+			if(a.length!=4)throw new IOException("Cannot send to <"+target+"> from an IPv4 socket");
+			name.set(JAVA_SHORT, 0, (short)AF_INET);
+			MemorySegment.copy(a, 0, name, JAVA_BYTE, 4, 4);
+			return SOCKADDR_IN_SIZE;
+		}
+		name.set(JAVA_SHORT, 0, (short)AF_INET6);
+		if(a.length==4){
+			//IPv4-mapped address ::ffff:a.b.c.d
+			name.set(JAVA_BYTE, 18, (byte)0xff);
+			name.set(JAVA_BYTE, 19, (byte)0xff);
+			MemorySegment.copy(a, 0, name, JAVA_BYTE, 20, 4);
+		}
+		else{
+			MemorySegment.copy(a, 0, name, JAVA_BYTE, 8, 16);
+			name.set(JAVA_INT, 24, ((Inet6Address)address).getScopeId());
+		}
+		return SOCKADDR_SIZE;
+	}
+
+}